@@ -0,0 +1,39 @@
+#!/usr/bin/env bash
+# Время полного прогона с --executor=platform и --executor=virtual на холодном и тёплом кэше страниц.
+# Холодный кэш — сброс через /proc/sys/vm/drop_caches перед каждым запуском, поэтому нужен root.
+# Дерево SyntheticTrees.SOURCE_TREE создаётся при первом запуске. Перед запуском:
+#   mvn -q -DskipTests install && mvn -q -f benchmarks/pom.xml package
+# Использование: sudo benchmarks/cold-cache.sh [каталог-дерева] [число-повторов]
+set -euo pipefail
+cd "$(dirname "$0")/.."
+
+tree=${1:-/tmp/filestats-source-tree}
+runs=${2:-3}
+jar=target/filestats-2.0.0.jar
+
+if [ ! -d "$tree" ]; then
+  java -cp benchmarks/target/benchmarks.jar org.example.filestats.SyntheticTrees SOURCE_TREE "$tree"
+fi
+echo "дерево: $tree, $(find "$tree" -type f | wc -l) файлов, $(du -sm --apparent-size "$tree" | cut -f1) МБ, $(nproc) CPU"
+
+seconds() {
+  local start end
+  start=$(date +%s%N)
+  java -jar "$jar" "$tree" --recursive "$@" > /dev/null
+  end=$(date +%s%N)
+  awk -v ns=$((end - start)) 'BEGIN { printf "%.1f\n", ns / 1e9 }'
+}
+
+median() {
+  sort -n | awk '{ v[NR] = $1 } END { print v[int((NR + 1) / 2)] }'
+}
+
+for mode in "--executor=platform" "--executor=virtual --max-open-files=256"; do
+  # shellcheck disable=SC2086
+  cold=$(for _ in $(seq "$runs"); do sync; echo 3 > /proc/sys/vm/drop_caches; seconds $mode; done | median)
+  # shellcheck disable=SC2086
+  seconds $mode > /dev/null
+  # shellcheck disable=SC2086
+  warm=$(for _ in $(seq "$runs"); do seconds $mode; done | median)
+  echo "$mode: холодный кэш ${cold} с, тёплый кэш ${warm} с"
+done
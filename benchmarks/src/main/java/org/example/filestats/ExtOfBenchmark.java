@@ -0,0 +1,53 @@
+package org.example.filestats;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.file.Path;
+
+/**
+ * Определение расширения: строковый {@code extOf} против интернирования в {@link StatsAccumulator}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExtOfBenchmark {
+
+    private static final int N = 1024;
+    private static final String[] NAMES = {"Main.java", "run.SH", "README", ".bashrc", "archive.tar.gz", "data.JSON", "x.", "Пример.txt"};
+
+    private final Path[] paths = new Path[N];
+    private final String[] names = new String[N];
+    private final StatsAccumulator acc = new StatsAccumulator();
+
+    @Setup
+    public void setup() {
+        for (int i = 0; i < N; i++) {
+            paths[i] = Path.of("src", "pkg" + (i % 17), NAMES[i % NAMES.length]);
+            names[i] = paths[i].getFileName().toString();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public void extOf(Blackhole bh) {
+        for (Path p : paths) bh.consume(FileStatsCli.extOf(p));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public void extIdOf(Blackhole bh) {
+        for (String n : names) bh.consume(acc.extIdOf(n));
+    }
+}
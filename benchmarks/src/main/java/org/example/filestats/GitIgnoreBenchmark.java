@@ -0,0 +1,80 @@
+package org.example.filestats;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Проверка путей по типичному .gitignore: сегментный API, который использует обход, и {@code ignored(Path)}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GitIgnoreBenchmark {
+
+    private static final int N = 1024;
+    private static final String[] RULES = {
+            "# build output", "target/", "build/", "out/", "node_modules", "*.class", "*.log", "*.tmp", "*.swp",
+            ".idea/", "*.iml", ".DS_Store", "/dist", "docs/**/*.pdf", "**/generated/*.java", "coverage-*.json",
+            "!important.log", "*.o", "*.so", "vendor/*/cache"
+    };
+    private static final String[] SEGMENTS = {"src", "main", "java", "org", "example", "docs", "generated", "lib", "vendor", "x"};
+    private static final String[] FILES = {"A.java", "app.log", "important.log", "notes.md", "B.class", "c.o", "coverage-1.json", "r.pdf"};
+
+    private Path dir;
+    private GitIgnore gitIgnore;
+    private final List<String[]> segs = new ArrayList<>();
+    private final List<Path> paths = new ArrayList<>();
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("filestats-bench-gitignore");
+        Files.write(dir.resolve(".gitignore"), List.of(RULES));
+        gitIgnore = GitIgnore.load(dir, System.err);
+        Random rnd = new Random(3);
+        for (int i = 0; i < N; i++) {
+            int depth = 1 + rnd.nextInt(6);
+            String[] s = new String[depth + 1];
+            for (int d = 0; d < depth; d++) s[d] = SEGMENTS[rnd.nextInt(SEGMENTS.length)];
+            s[depth] = FILES[rnd.nextInt(FILES.length)];
+            segs.add(s);
+            paths.add(Path.of(String.join("/", s)));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        SyntheticTrees.delete(dir);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public void ignoredSegments(Blackhole bh) {
+        for (String[] s : segs) bh.consume(gitIgnore.ignored(s, s.length, false));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public void ignoredPath(Blackhole bh) {
+        for (Path p : paths) bh.consume(gitIgnore.ignored(p));
+    }
+}
@@ -0,0 +1,78 @@
+package org.example.filestats;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+/**
+ * Классификация строк в памяти, без ввода-вывода: чистая стоимость {@link LineScanner} на мегабайт;
+ * для сравнения — подсчёт одних переводов строк ({@link LineCounter}, --lines-only).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LineScannerBenchmark {
+
+    @Param({"source", "cyrillic", "latin1", "binary"})
+    public String content;
+
+    /** расширение, по которому выбирается {@link Dialect}: java — блоки и строки, txt — без комментариев */
+    @Param({"java", "txt"})
+    public String ext;
+
+    private byte[] data;
+    private final LineScanner scanner = new LineScanner();
+    private final LineCounter counter = new LineCounter();
+    private Dialect dialect;
+
+    @Setup
+    public void setup() {
+        dialect = Languages.builtin().dialectOf(ext);
+        Random rnd = new Random(7);
+        int target = 4 * 1024 * 1024;
+        ByteArrayOutputStream out = new ByteArrayOutputStream(target);
+        while (out.size() < target) {
+            byte[] chunk = switch (content) {
+                case "cyrillic" -> SyntheticTrees.cyrillic(rnd, 100);
+                case "latin1" -> SyntheticTrees.latin1(rnd, 100);
+                case "binary" -> SyntheticTrees.binary(rnd, 4096);
+                default -> SyntheticTrees.sourceLike(rnd, 100);
+            };
+            out.writeBytes(chunk);
+        }
+        data = out.toByteArray();
+    }
+
+    @Benchmark
+    public long scan(ScanCounters counters) {
+        scanner.reset(dialect);
+        for (int off = 0; off < data.length; off += ContentReader.BUFFER_SIZE) {
+            scanner.accept(data, off, Math.min(ContentReader.BUFFER_SIZE, data.length - off));
+        }
+        scanner.finish();
+        counters.add(1, data.length);
+        return scanner.totalLines() + scanner.nonEmptyLines() + scanner.commentLines();
+    }
+
+    @Benchmark
+    public long countNewlines(ScanCounters counters) {
+        counter.reset();
+        for (int off = 0; off < data.length; off += ContentReader.BUFFER_SIZE) {
+            counter.accept(data, off, Math.min(ContentReader.BUFFER_SIZE, data.length - off));
+        }
+        counters.add(1, data.length);
+        return counter.lines();
+    }
+}
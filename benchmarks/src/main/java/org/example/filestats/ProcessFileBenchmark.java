@@ -0,0 +1,69 @@
+package org.example.filestats;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * {@code processFile} целиком: чтение через {@link ContentReader}, классификация строк и накопление статистики
+ * по всем файлам синтетического дерева (файлы лежат в page cache после первой итерации).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProcessFileBenchmark {
+
+    @Param({"TINY_FILES", "HUGE_FILES", "MIXED_ENCODINGS"})
+    public SyntheticTrees.Shape shape;
+
+    @Param({"auto", "stream"})
+    public FileStatsCli.IoMode ioMode;
+
+    private Path root;
+    private List<Path> files;
+    private long totalBytes;
+    private final FileStatsCli cli = new FileStatsCli();
+    private ContentReader reader;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        root = SyntheticTrees.create(shape);
+        try (Stream<Path> s = Files.walk(root)) {
+            files = s.filter(Files::isRegularFile).toList();
+        }
+        for (Path f : files) totalBytes += Files.size(f);
+        reader = new ContentReader(ioMode);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        SyntheticTrees.delete(root);
+    }
+
+    @Benchmark
+    public FileStatsCli.Worker processTree(ScanCounters counters) {
+        FileStatsCli.Worker w = new FileStatsCli.Worker();
+        for (Path f : files) {
+            cli.processFile(f, root, reader, null, w);
+        }
+        counters.add(files.size(), totalBytes);
+        return w;
+    }
+}
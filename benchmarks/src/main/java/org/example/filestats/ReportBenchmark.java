@@ -0,0 +1,60 @@
+package org.example.filestats;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Потоковая запись отчётов plain/JSON/XML по готовой статистике (в {@link Writer#nullWriter()}).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReportBenchmark {
+
+    @Param({"10", "1000"})
+    public int extensions;
+
+    @Param({"false", "true"})
+    public boolean compact;
+
+    private final Map<String, FileStatsCli.Stats> stats = new HashMap<>();
+
+    @Setup
+    public void setup() {
+        StatsAccumulator acc = new StatsAccumulator();
+        for (int i = 0; i < extensions; i++) {
+            acc.add(acc.intern("ext" + i), 1000L * i, 100L * i, 80L * i, 10L * i);
+        }
+        acc.mergeInto(stats);
+    }
+
+    @Benchmark
+    public void plain() throws IOException {
+        ReportWriter.write(FileStatsCli.Output.plain, compact, stats, Writer.nullWriter());
+    }
+
+    @Benchmark
+    public void json() throws IOException {
+        ReportWriter.write(FileStatsCli.Output.json, compact, stats, Writer.nullWriter());
+    }
+
+    @Benchmark
+    public void xml() throws IOException {
+        ReportWriter.write(FileStatsCli.Output.xml, compact, stats, Writer.nullWriter());
+    }
+}
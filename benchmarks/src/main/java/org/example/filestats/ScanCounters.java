@@ -0,0 +1,28 @@
+package org.example.filestats;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Дополнительные счётчики JMH: выводятся как скорости — файлов в секунду и мегабайт в секунду.
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class ScanCounters {
+    public long files;
+    public double megabytes;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+        files = 0;
+        megabytes = 0;
+    }
+
+    void add(long fileCount, long bytes) {
+        files += fileCount;
+        megabytes += bytes / 1_000_000.0;
+    }
+}
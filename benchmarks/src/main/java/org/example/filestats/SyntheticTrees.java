@@ -0,0 +1,143 @@
+package org.example.filestats;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Генераторы синтетических деревьев и содержимого файлов для бенчмарков.
+ * Все генераторы детерминированы (фиксированный seed), чтобы прогоны были сравнимы.
+ */
+public final class SyntheticTrees {
+
+    public enum Shape {
+        /** много маленьких файлов в широком неглубоком дереве */
+        TINY_FILES,
+        /** несколько больших файлов */
+        HUGE_FILES,
+        /** глубокая вложенность каталогов с небольшим числом файлов на уровне */
+        DEEP_NESTING,
+        /** файлы в UTF-8 с кириллицей, Latin-1 (некорректный UTF-8) и бинарные */
+        MIXED_ENCODINGS,
+        /** 100 000 исходников по ~3 КБ (~300 МБ) в 1000 каталогах — для сравнения исполнителей на холодном кэше */
+        SOURCE_TREE
+    }
+
+    private static final String[] EXTS = {"java", "sh", "txt", "md", "xml", "json"};
+
+    private SyntheticTrees() {
+    }
+
+    /**
+     * Создаёт дерево в указанном каталоге: {@code SyntheticTrees <shape> <dir>}; его использует
+     * {@code benchmarks/cold-cache.sh}.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Использование: SyntheticTrees <shape> <dir>");
+            System.exit(2);
+        }
+        create(Shape.valueOf(args[0]), Files.createDirectories(Path.of(args[1])));
+    }
+
+    static Path create(Shape shape) throws IOException {
+        return create(shape, Files.createTempDirectory("filestats-bench-" + shape.name().toLowerCase()));
+    }
+
+    static Path create(Shape shape, Path root) throws IOException {
+        Random rnd = new Random(42);
+        switch (shape) {
+            case TINY_FILES -> {
+                for (int d = 0; d < 100; d++) {
+                    Path dir = Files.createDirectories(root.resolve("d" + d));
+                    for (int f = 0; f < 200; f++) {
+                        Files.write(dir.resolve("f" + f + "." + EXTS[rnd.nextInt(EXTS.length)]), sourceLike(rnd, 1 + rnd.nextInt(20)));
+                    }
+                }
+            }
+            case HUGE_FILES -> {
+                for (int f = 0; f < 4; f++) {
+                    try (OutputStream out = Files.newOutputStream(root.resolve("big" + f + ".log"))) {
+                        for (int chunk = 0; chunk < 64; chunk++) out.write(sourceLike(rnd, 16 * 1024));
+                    }
+                }
+            }
+            case DEEP_NESTING -> {
+                for (int branch = 0; branch < 20; branch++) {
+                    Path dir = root;
+                    for (int level = 0; level < 40; level++) {
+                        dir = Files.createDirectories(dir.resolve("l" + level));
+                        for (int f = 0; f < 3; f++) {
+                            Files.write(dir.resolve("f" + f + "." + EXTS[rnd.nextInt(EXTS.length)]), sourceLike(rnd, 5));
+                        }
+                    }
+                }
+            }
+            case MIXED_ENCODINGS -> {
+                for (int f = 0; f < 3000; f++) {
+                    byte[] content = switch (f % 4) {
+                        case 0 -> cyrillic(rnd, 30);
+                        case 1 -> latin1(rnd, 30);
+                        case 2 -> binary(rnd, 4096);
+                        default -> sourceLike(rnd, 30);
+                    };
+                    Files.write(root.resolve("f" + f + "." + EXTS[f % EXTS.length]), content);
+                }
+            }
+            case SOURCE_TREE -> {
+                for (int d = 0; d < 1000; d++) {
+                    Path dir = Files.createDirectories(root.resolve("m" + d / 100).resolve("d" + d));
+                    for (int f = 0; f < 100; f++) {
+                        Files.write(dir.resolve("f" + f + "." + EXTS[rnd.nextInt(EXTS.length)]), sourceLike(rnd, 20 + rnd.nextInt(220)));
+                    }
+                }
+            }
+        }
+        return root;
+    }
+
+    static void delete(Path root) throws IOException {
+        try (Stream<Path> s = Files.walk(root)) {
+            s.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    static byte[] sourceLike(Random rnd, int lines) {
+        StringBuilder sb = new StringBuilder(lines * 40);
+        for (int i = 0; i < lines; i++) {
+            switch (rnd.nextInt(6)) {
+                case 0 -> sb.append("    // comment line ").append(i);
+                case 1 -> sb.append("# shell comment ").append(i);
+                case 2 -> sb.append("   ");
+                default -> sb.append("    int value").append(i).append(" = compute(").append(rnd.nextInt(1000)).append(");");
+            }
+            sb.append(rnd.nextInt(20) == 0 ? "\r\n" : "\n");
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    static byte[] cyrillic(Random rnd, int lines) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < lines; i++) {
+            sb.append(rnd.nextBoolean() ? "// комментарий " : "значение = ").append(i).append('\n');
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    static byte[] latin1(Random rnd, int lines) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < lines; i++) sb.append("café naïve ").append(i).append('\n');
+        return sb.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    static byte[] binary(Random rnd, int size) {
+        byte[] b = new byte[size];
+        rnd.nextBytes(b);
+        return b;
+    }
+}
@@ -0,0 +1,62 @@
+package org.example.filestats;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Обход дерева {@link TreeWalker} без обработки содержимого: сколько файлов в секунду находит обход.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WalkBenchmark {
+
+    @Param({"TINY_FILES", "DEEP_NESTING"})
+    public SyntheticTrees.Shape shape;
+
+    @Param({"1", "4"})
+    public int walkThreads;
+
+    @Param({"false", "true"})
+    public boolean gitIgnore;
+
+    private Path root;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        root = SyntheticTrees.create(shape);
+        Files.writeString(root.resolve(".gitignore"), "*.tmp\nbuild/\n");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        SyntheticTrees.delete(root);
+    }
+
+    @Benchmark
+    public long walk(ScanCounters counters) throws Exception {
+        LongAdder found = new LongAdder();
+        TreeWalker walker = new TreeWalker(root, Integer.MAX_VALUE, p -> true,
+                gitIgnore ? GitIgnore.load(root, System.err) : null, walkThreads, 64, null, System.err);
+        walker.walk(batch -> found.add(batch.length));
+        counters.add(found.sum(), 0);
+        return found.sum();
+    }
+}
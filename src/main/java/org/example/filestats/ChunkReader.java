@@ -0,0 +1,97 @@
+package org.example.filestats;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.IntConsumer;
+
+/**
+ * Подсчёт строк большого файла для --lines-only частями по {@link ContentReader#CHUNK} байт силами обработчиков
+ * того же прогона: части выкладываются в общую очередь, свободные обработчики забирают их своими буферами
+ * ({@link #help}), а обработчик, которому достался файл, читает все части, которые никто не взял, и ждёт остальные.
+ * Отдельного пула нет, так что --threads, --executor и --max-open-files действуют и здесь.
+ */
+final class ChunkReader {
+
+    private final ContentReader reader;
+    // зовёт на помощь до n свободных обработчиков; null — помощников нет
+    private final IntConsumer wake;
+    private final Queue<Chunk> pending = new ConcurrentLinkedQueue<>();
+
+    ChunkReader(ContentReader reader, IntConsumer wake) {
+        this.reader = reader;
+        this.wake = wake;
+    }
+
+    private final class Chunk {
+        final FileChannel ch;
+        final long pos;
+        final long len;
+        final LineCounter counter = new LineCounter();
+        final AtomicBoolean claimed = new AtomicBoolean();
+        final CountDownLatch done;
+        volatile IOException failure;
+
+        Chunk(FileChannel ch, long pos, long len, CountDownLatch done) {
+            this.ch = ch;
+            this.pos = pos;
+            this.len = len;
+            this.done = done;
+        }
+
+        void runIfUnclaimed(ContentReader.Buffers buffers) {
+            if (!claimed.compareAndSet(false, true)) return;
+            try {
+                reader.readRange(ch, pos, len, buffers, counter);
+            } catch (IOException e) {
+                failure = e;
+            } finally {
+                done.countDown();
+            }
+        }
+    }
+
+    /**
+     * Строки файла; вызывается обработчиком, которому достался файл, с его буферами.
+     */
+    long lines(Path file, long size, ContentReader.Buffers buffers) throws IOException, InterruptedException {
+        int parts = (int) ((size + ContentReader.CHUNK - 1) / ContentReader.CHUNK);
+        List<Chunk> chunks = new ArrayList<>(parts);
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            CountDownLatch done = new CountDownLatch(parts);
+            for (int i = 0; i < parts; i++) {
+                long pos = i * ContentReader.CHUNK;
+                chunks.add(new Chunk(ch, pos, Math.min(ContentReader.CHUNK, size - pos), done));
+            }
+            // первую часть обработчик берёт сам, остальные — кто успеет
+            if (wake != null && parts > 1) {
+                pending.addAll(chunks.subList(1, parts));
+                wake.accept(parts - 1);
+            }
+            for (Chunk c : chunks) c.runIfUnclaimed(buffers);
+            // канал закрывается только после того, как помощники дочитали свои части
+            done.await();
+        }
+        List<LineCounter> counters = new ArrayList<>(parts);
+        for (Chunk c : chunks) {
+            if (c.failure != null) throw c.failure;
+            counters.add(c.counter);
+        }
+        return LineCounter.lines(counters);
+    }
+
+    /**
+     * Читает ожидающие части буферами вызывающего обработчика; без ожидающих частей сразу возвращается.
+     */
+    void help(ContentReader.Buffers buffers) {
+        Chunk c;
+        while ((c = pending.poll()) != null) c.runIfUnclaimed(buffers);
+    }
+}
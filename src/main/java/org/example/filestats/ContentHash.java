@@ -0,0 +1,195 @@
+package org.example.filestats;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Потоковый 128-битный хэш содержимого для --dedupe: две независимые 64-битные полосы по словам
+ * из 16 байт и перемешивание в конце. Не криптографический — нужен, чтобы отличать случайно
+ * совпавшие по размеру файлы, а не противостоять подбору; совпадение хэшей {@link Dedupe} подтверждает
+ * побайтовым сравнением.
+ * <p>
+ * Попутно запоминает хэш первых {@link #PARTIAL} байт: по нему сравниваются файлы, прочитанные
+ * не до конца (двоичные — после распознавания).
+ */
+final class ContentHash {
+
+    static final int PARTIAL = 4096;
+
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final long P1 = 0x9E3779B185EBCA87L;
+    private static final long P2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long P3 = 0x165667B19E3779F9L;
+    private static final long P4 = 0x85EBCA77C2B2AE63L;
+
+    /**
+     * Хэш файла: по первым {@link #PARTIAL} байтам и, если файл прочитан целиком, по всему содержимому.
+     */
+    static final class Digest {
+        final long partialHi;
+        final long partialLo;
+        final boolean full;
+        final long fullHi;
+        final long fullLo;
+
+        Digest(long partialHi, long partialLo, boolean full, long fullHi, long fullLo) {
+            this.partialHi = partialHi;
+            this.partialLo = partialLo;
+            this.full = full;
+            this.fullHi = fullHi;
+            this.fullLo = fullLo;
+        }
+
+        boolean samePartial(Digest o) {
+            return partialHi == o.partialHi && partialLo == o.partialLo;
+        }
+    }
+
+    private final byte[] pending = new byte[16];
+    private int pendingLen;
+    private long a;
+    private long b;
+    private long length;
+    private boolean partialDone;
+    private long partialHi;
+    private long partialLo;
+
+    ContentHash() {
+        reset();
+    }
+
+    void reset() {
+        a = P1;
+        b = P2;
+        length = 0;
+        pendingLen = 0;
+        partialDone = false;
+    }
+
+    long length() {
+        return length;
+    }
+
+    void update(byte[] buf, int off, int len) {
+        if (!partialDone && length + len >= PARTIAL) {
+            int head = (int) (PARTIAL - length);
+            mix(buf, off, head);
+            partialHi = digestHi();
+            partialLo = digestLo();
+            partialDone = true;
+            off += head;
+            len -= head;
+        }
+        mix(buf, off, len);
+    }
+
+    /**
+     * @param whole прочитан ли файл целиком: иначе полного хэша нет
+     */
+    Digest finish(boolean whole) {
+        long hi = digestHi();
+        long lo = digestLo();
+        if (!partialDone) return new Digest(hi, lo, whole, hi, lo);
+        return whole ? new Digest(partialHi, partialLo, true, hi, lo) : new Digest(partialHi, partialLo, false, 0, 0);
+    }
+
+    private void mix(byte[] buf, int off, int len) {
+        int end = off + len;
+        length += len;
+        if (pendingLen > 0) {
+            int n = Math.min(16 - pendingLen, len);
+            System.arraycopy(buf, off, pending, pendingLen, n);
+            pendingLen += n;
+            off += n;
+            if (pendingLen < 16) return;
+            a = round(a, (long) LONGS.get(pending, 0), P1, P2);
+            b = round(b, (long) LONGS.get(pending, 8), P3, P4);
+            pendingLen = 0;
+        }
+        long ha = a, hb = b;
+        for (; off + 16 <= end; off += 16) {
+            ha = round(ha, (long) LONGS.get(buf, off), P1, P2);
+            hb = round(hb, (long) LONGS.get(buf, off + 8), P3, P4);
+        }
+        a = ha;
+        b = hb;
+        pendingLen = end - off;
+        System.arraycopy(buf, off, pending, 0, pendingLen);
+    }
+
+    private static long round(long h, long k, long m1, long m2) {
+        return Long.rotateLeft(h + k * m1, 31) * m2;
+    }
+
+    // хвост дописывается нулями (байты за pendingLen не используются), неоднозначность снимается длиной
+    private long tailA() {
+        if (pendingLen == 0) return a;
+        Arrays.fill(pending, pendingLen, 16, (byte) 0);
+        return round(a, (long) LONGS.get(pending, 0), P1, P2);
+    }
+
+    private long tailB() {
+        if (pendingLen <= 8) return b;
+        Arrays.fill(pending, pendingLen, 16, (byte) 0);
+        return round(b, (long) LONGS.get(pending, 8), P3, P4);
+    }
+
+    private long digestHi() {
+        long x = tailA(), y = tailB();
+        return fmix(x + Long.rotateLeft(y, 17) + length * P3);
+    }
+
+    private long digestLo() {
+        long x = tailA(), y = tailB();
+        return fmix((y + Long.rotateLeft(x, 41)) ^ length * P4);
+    }
+
+    private static long fmix(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Передаёт прочитанное и хэшу, и сканеру строк, так что содержимое читается один раз. Когда сканеру
+     * больше не нужны данные (двоичный файл), чтение продолжается только до первых {@link #PARTIAL} байт.
+     */
+    static final class Tee implements ContentReader.ByteSink {
+        private final ContentHash hash;
+        private ContentReader.ByteSink scanner;
+        private boolean scanning;
+
+        Tee(ContentHash hash) {
+            this.hash = hash;
+        }
+
+        /**
+         * @param scanner сканер строк очередного файла
+         */
+        void reset(ContentReader.ByteSink scanner) {
+            hash.reset();
+            this.scanner = scanner;
+            scanning = true;
+        }
+
+        /**
+         * Полный хэш — только если файл дочитан сканером или не длиннее {@link #PARTIAL}: где оборвётся
+         * чтение двоичного файла, зависит от размера блоков, а одинаковые файлы должны попадать в одну группу.
+         */
+        Digest finish(long size) {
+            return hash.finish(hash.length() == size && (scanning || size <= PARTIAL));
+        }
+
+        @Override
+        public boolean accept(byte[] buf, int off, int len) {
+            hash.update(buf, off, len);
+            if (scanning) scanning = scanner.accept(buf, off, len);
+            return scanning || hash.length() < PARTIAL;
+        }
+    }
+}
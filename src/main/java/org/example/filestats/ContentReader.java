@@ -0,0 +1,173 @@
+package org.example.filestats;
+
+import org.example.filestats.FileStatsCli.IoMode;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Читает содержимое файла блоками и передаёт их в {@link ByteSink}.
+ * Способ чтения выбирается по {@link IoMode}; в режиме {@code auto} — по размеру файла:
+ * маленькие файлы читаются одним read через поток, остальные — через {@link FileChannel} в переиспользуемый
+ * direct-буфер. С {@link ReadLimiter} скорость чтения ограничена.
+ * <p>
+ * Приёмники разбирают {@code byte[]}, поэтому и {@code channel}, и {@code mmap} копируют каждый блок в
+ * {@link Buffers#heap}: отображение в память не избавляет от копирования, и {@code auto} его не выбирает.
+ * Оба режима оставлены для замеров ({@code ProcessFileBenchmark}).
+ */
+final class ContentReader {
+
+    interface ByteSink {
+        /**
+         * @return {@code false}, если дальше файл читать не нужно
+         */
+        boolean accept(byte[] buf, int off, int len);
+    }
+
+    static final int BUFFER_SIZE = 64 * 1024;
+    static final long CHUNK = 16L * 1024 * 1024;
+    private static final long MAP_REGION = 256L * 1024 * 1024;
+
+    /**
+     * Буферы одного обработчика; переиспользуются между файлами и не разделяются между потоками.
+     */
+    static final class Buffers {
+        final byte[] heap = new byte[BUFFER_SIZE];
+        private ByteBuffer direct;
+        // второй файл при побайтовом сравнении
+        private byte[] other;
+
+        ByteBuffer direct() {
+            if (direct == null) direct = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            return direct;
+        }
+
+        byte[] other() {
+            if (other == null) other = new byte[BUFFER_SIZE];
+            return other;
+        }
+    }
+
+    private final IoMode mode;
+    private final ReadLimiter limiter;
+
+    ContentReader(IoMode mode) {
+        this(mode, null);
+    }
+
+    ContentReader(IoMode mode, ReadLimiter limiter) {
+        this.mode = mode;
+        this.limiter = limiter;
+    }
+
+    IoMode modeFor(long size) {
+        if (mode != IoMode.auto) return mode;
+        return size <= BUFFER_SIZE ? IoMode.stream : IoMode.channel;
+    }
+
+    void read(Path file, long size, Buffers buffers, ByteSink sink) throws IOException {
+        if (limiter != null) sink = limiter.paced(sink);
+        switch (modeFor(size)) {
+            case mmap -> readMapped(file, buffers, sink);
+            case channel -> readChannel(file, buffers, sink);
+            default -> readStream(file, buffers, sink);
+        }
+    }
+
+    /**
+     * Читает {@code len} байт с позиции {@code pos} открытого канала буферами обработчика. Чтение позиционное,
+     * так что части одного канала могут читать несколько обработчиков одновременно (см. {@link ChunkReader}).
+     */
+    void readRange(FileChannel ch, long pos, long len, Buffers buffers, ByteSink sink) throws IOException {
+        byte[] buf = buffers.heap;
+        ByteBuffer direct = buffers.direct();
+        long end = pos + len;
+        while (pos < end) {
+            direct.clear().limit((int) Math.min(buf.length, end - pos));
+            int n = ch.read(direct, pos);
+            // файл укоротился после чтения атрибутов
+            if (n <= 0) return;
+            if (limiter != null) limiter.acquire(n);
+            direct.flip();
+            direct.get(buf, 0, n);
+            pos += n;
+            if (!sink.accept(buf, 0, n)) return;
+        }
+    }
+
+    /**
+     * Совпадает ли содержимое двух файлов размера {@code size} байт в байт. Оба файла читаются буферами
+     * обработчика и в счёт предела скорости; файл другого размера (изменился после обхода) не совпадает.
+     */
+    boolean sameContent(Path a, Path b, long size, Buffers buffers) throws IOException {
+        byte[] x = buffers.heap;
+        byte[] y = buffers.other();
+        try (FileChannel ca = FileChannel.open(a, StandardOpenOption.READ);
+             FileChannel cb = FileChannel.open(b, StandardOpenOption.READ)) {
+            if (ca.size() != size || cb.size() != size) return false;
+            for (long pos = 0; pos < size; ) {
+                int n = (int) Math.min(x.length, size - pos);
+                if (!readFully(ca, x, n, pos) || !readFully(cb, y, n, pos)) return false;
+                if (limiter != null) limiter.acquire(2 * n);
+                if (!Arrays.equals(x, 0, n, y, 0, n)) return false;
+                pos += n;
+            }
+            return true;
+        }
+    }
+
+    private static boolean readFully(FileChannel ch, byte[] buf, int len, long pos) throws IOException {
+        ByteBuffer bb = ByteBuffer.wrap(buf, 0, len);
+        while (bb.hasRemaining()) {
+            if (ch.read(bb, pos + bb.position()) <= 0) return false;
+        }
+        return true;
+    }
+
+    private static void readStream(Path file, Buffers buffers, ByteSink sink) throws IOException {
+        byte[] buf = buffers.heap;
+        try (InputStream in = Files.newInputStream(file)) {
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                if (!sink.accept(buf, 0, n)) return;
+            }
+        }
+    }
+
+    private static void readChannel(Path file, Buffers buffers, ByteSink sink) throws IOException {
+        byte[] buf = buffers.heap;
+        ByteBuffer direct = buffers.direct();
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            direct.clear();
+            while (ch.read(direct) > 0) {
+                direct.flip();
+                int n = direct.remaining();
+                direct.get(buf, 0, n);
+                direct.clear();
+                if (!sink.accept(buf, 0, n)) return;
+            }
+        }
+    }
+
+    private static void readMapped(Path file, Buffers buffers, ByteSink sink) throws IOException {
+        byte[] buf = buffers.heap;
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = ch.size();
+            for (long pos = 0; pos < size; pos += MAP_REGION) {
+                MappedByteBuffer region = ch.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(MAP_REGION, size - pos));
+                while (region.hasRemaining()) {
+                    int n = Math.min(buf.length, region.remaining());
+                    region.get(buf, 0, n);
+                    if (!sink.accept(buf, 0, n)) return;
+                }
+            }
+        }
+    }
+}
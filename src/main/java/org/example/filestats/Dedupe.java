@@ -0,0 +1,204 @@
+package org.example.filestats;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Поиск файлов с одинаковым содержимым для --dedupe. Хэши считаются обработчиками попутно с подсчётом
+ * строк ({@link ContentHash.Tee}) и сразу раскладываются по группам, так что после обхода остаётся
+ * только дочитать файлы, прочитанные не целиком (двоичные), и только те из них, у которых совпали
+ * размер и хэш первых {@link ContentHash#PARTIAL} байт.
+ * <p>
+ * Хэш не криптографический, поэтому совпадение размера и полного хэша лишь делает файлы кандидатами:
+ * дубликатом файл считается, только если побайтово совпал с исходным. Так коллизия хэша не выбрасывает
+ * из итогов другой файл. В каждой группе одинаковых файлов исходным считается первый по пути,
+ * остальные — дубликатами, каждый по своему расширению. Потокобезопасен.
+ */
+final class Dedupe {
+
+    private static final class Key {
+        final long size;
+        final long hi;
+        final long lo;
+
+        Key(long size, long hi, long lo) {
+            this.size = size;
+            this.hi = hi;
+            this.lo = lo;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key k && k.size == size && k.hi == hi && k.lo == lo;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (hi ^ hi >>> 32);
+        }
+    }
+
+    private static final class Candidate {
+        final Path path;
+        final String ext;
+        final long size;
+        final ContentHash.Digest digest;
+
+        Candidate(Path path, String ext, long size, ContentHash.Digest digest) {
+            this.path = path;
+            this.ext = ext;
+            this.size = size;
+            this.digest = digest;
+        }
+    }
+
+    // совпавшие по размеру и полному хэшу: кандидаты на побайтовое сравнение
+    private final Map<Key, List<Candidate>> full = new ConcurrentHashMap<>();
+    // прочитанные не целиком: кандидаты на дочитывание
+    private final Map<Key, List<Candidate>> partial = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder[]> dupes = new ConcurrentHashMap<>();
+    private final LongAdder rehashed = new LongAdder();
+
+    void add(Path file, String ext, long size, ContentHash.Digest digest) {
+        Candidate c = new Candidate(file, ext, size, digest);
+        if (digest.full) {
+            addFull(c);
+            return;
+        }
+        List<Candidate> group = partial.computeIfAbsent(new Key(size, digest.partialHi, digest.partialLo), k -> new ArrayList<>(1));
+        synchronized (group) {
+            group.add(c);
+        }
+    }
+
+    private void addFull(Candidate c) {
+        List<Candidate> group = full.computeIfAbsent(new Key(c.size, c.digest.fullHi, c.digest.fullLo), k -> new ArrayList<>(1));
+        synchronized (group) {
+            group.add(c);
+        }
+    }
+
+    /**
+     * Дочитывает совпавшие по началу файлы, которые не были прочитаны целиком, и сравнивает побайтово
+     * файлы с одинаковыми размером и хэшем.
+     *
+     * @param executor пул обработчиков прогона
+     * @param buffers  буферы отработавших обработчиков; их число задаёт параллельность
+     * @param name     путь файла для сообщений
+     */
+    void finish(ContentReader reader, ExecutorService executor, List<ContentReader.Buffers> buffers, Function<Path, String> name, PrintStream err)
+            throws InterruptedException {
+        BlockingQueue<ContentReader.Buffers> idle = new ArrayBlockingQueue<>(buffers.size(), false, buffers);
+        List<Candidate> files = new ArrayList<>();
+        for (List<Candidate> group : partial.values()) {
+            if (group.size() > 1) files.addAll(group);
+        }
+        rehashed.add(files.size());
+        List<Future<?>> futures = new ArrayList<>(files.size());
+        for (Candidate c : files) {
+            futures.add(executor.submit(() -> {
+                ContentReader.Buffers b = idle.take();
+                try {
+                    ContentHash hash = new ContentHash();
+                    reader.read(c.path, c.size, b, (buf, off, len) -> {
+                        hash.update(buf, off, len);
+                        return true;
+                    });
+                    ContentHash.Digest d = hash.finish(hash.length() == c.size);
+                    // файл изменился после первого чтения — в сравнении не участвует
+                    if (d.full && d.samePartial(c.digest)) addFull(new Candidate(c.path, c.ext, c.size, d));
+                } catch (IOException e) {
+                    err.println("Не удалось прочитать файл для --dedupe: " + name.apply(c.path) + " -> " + e.getMessage());
+                } finally {
+                    idle.add(b);
+                }
+                return null;
+            }));
+        }
+        await(futures);
+
+        futures.clear();
+        for (List<Candidate> group : full.values()) {
+            if (group.size() < 2) continue;
+            futures.add(executor.submit(() -> {
+                ContentReader.Buffers b = idle.take();
+                try {
+                    compare(group, reader, b, name, err);
+                } finally {
+                    idle.add(b);
+                }
+                return null;
+            }));
+        }
+        await(futures);
+    }
+
+    // разбивает группу с одинаковым хэшем на файлы с одинаковым содержимым: первый по пути в каждой — исходный
+    private void compare(List<Candidate> group, ContentReader reader, ContentReader.Buffers b, Function<Path, String> name, PrintStream err) {
+        group.sort(Comparator.comparing(c -> c.path));
+        List<Candidate> originals = new ArrayList<>(1);
+        for (Candidate c : group) {
+            Candidate same = null;
+            try {
+                for (Candidate o : originals) {
+                    if (reader.sameContent(o.path, c.path, c.size, b)) {
+                        same = o;
+                        break;
+                    }
+                }
+            } catch (IOException e) {
+                err.println("Не удалось прочитать файл для --dedupe: " + name.apply(c.path) + " -> " + e.getMessage());
+                continue;
+            }
+            if (same == null) {
+                originals.add(c);
+                continue;
+            }
+            LongAdder[] t = dupes.computeIfAbsent(c.ext, k -> new LongAdder[]{new LongAdder(), new LongAdder()});
+            t[0].increment();
+            t[1].add(c.size);
+        }
+    }
+
+    private static void await(List<Future<?>> futures) throws InterruptedException {
+        for (Future<?> f : futures) {
+            try {
+                f.get();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Ошибка при поиске дубликатов: " + e.getCause(), e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Дубликаты по расширению: {@code [файлы, байты]}.
+     */
+    Map<String, long[]> byExt() {
+        Map<String, long[]> out = new HashMap<>();
+        for (Map.Entry<String, LongAdder[]> e : dupes.entrySet()) {
+            out.put(e.getKey(), new long[]{e.getValue()[0].sum(), e.getValue()[1].sum()});
+        }
+        return out;
+    }
+
+    /**
+     * Сколько файлов пришлось дочитать ради полного хэша.
+     */
+    long rehashed() {
+        return rehashed.sum();
+    }
+}
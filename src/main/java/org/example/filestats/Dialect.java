@@ -0,0 +1,277 @@
+package org.example.filestats;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Распознаватель комментариев одного языка, скомпилированный в детерминированный автомат по байтам.
+ * <p>
+ * Язык задаётся маркерами однострочных комментариев, парами начала/конца блочных комментариев
+ * и строковыми литералами (внутри строки маркеры комментариев не действуют). Состояние автомата —
+ * текущий режим (код, комментарий, блок, строка) плюс ещё не разрешённый префикс маркера;
+ * из маркеров, начинающихся одинаково, выбирается самый длинный. Каждый переход заранее
+ * размечен флагами {@link #CODE}, {@link #COMMENT}, {@link #NONBLANK} — что он добавляет к текущей строке,
+ * так что сканеру на каждый байт достаточно одного обращения к таблице. Значение перехода — смещение строки
+ * таблицы следующего состояния ({@code state << 8}) с флагами в младших битах.
+ * <p>
+ * Алфавит автомата — ASCII; не-ASCII символы подаются как {@code ' '} (пробельные) или {@link #OTHER}.
+ */
+final class Dialect {
+
+    static final int CODE = 1;
+    static final int COMMENT = 2;
+    static final int NONBLANK = 4;
+    static final int ROW_MASK = ~0xFF;
+
+    /** байт, которым в автомат подаётся непробельный не-ASCII символ */
+    static final int OTHER = 0x80;
+
+    private static final int ALPHABET = 256;
+    private static final int MAX_STATES = 1 << 16;
+
+    /** язык без комментариев: любой непробельный символ — код */
+    static final Dialect PLAIN = new Builder("plain").compile();
+
+    final String name;
+    // [state << 8 | byte] -> (следующее состояние << 8) | флаги перехода
+    final int[] next;
+    // [state] -> флаги, которые даёт неразрешённый префикс маркера, если файл на нём закончился
+    final int[] eof;
+
+    private Dialect(String name, int[] next, int[] eof) {
+        this.name = name;
+        this.next = next;
+        this.eof = eof;
+    }
+
+    int states() {
+        return eof.length;
+    }
+
+    static final class Builder {
+        private final String name;
+        private final List<String> lines = new ArrayList<>();
+        private final List<String[]> blocks = new ArrayList<>();
+        private final List<StringLiteral> strings = new ArrayList<>();
+
+        Builder(String name) {
+            this.name = name;
+        }
+
+        Builder line(String marker) {
+            lines.add(checkToken(marker));
+            return this;
+        }
+
+        Builder block(String open, String close) {
+            blocks.add(new String[]{checkToken(open), checkToken(close)});
+            return this;
+        }
+
+        /**
+         * @param escape символ экранирования или -1
+         */
+        Builder string(String open, String close, int escape, boolean multiline) {
+            if (escape >= 0) checkToken(String.valueOf((char) escape));
+            strings.add(new StringLiteral(checkToken(open), checkToken(close), escape, multiline));
+            return this;
+        }
+
+        Dialect compile() {
+            return new Compiler(modes()).run(name);
+        }
+
+        private List<Mode> modes() {
+            // 0 — код, 1 — однострочный комментарий, далее блоки, далее пары (строка, экранирование)
+            List<Mode> modes = new ArrayList<>();
+            Mode code = new Mode(CODE, false, -1);
+            modes.add(code);
+            modes.add(new Mode(COMMENT, true, -1));
+            for (String l : lines) code.tokens.add(new Token(l, 1, COMMENT));
+            for (String[] b : blocks) {
+                Mode block = new Mode(COMMENT, false, -1);
+                block.tokens.add(new Token(b[1], 0, COMMENT));
+                code.tokens.add(new Token(b[0], modes.size(), COMMENT));
+                modes.add(block);
+            }
+            for (StringLiteral s : strings) {
+                int id = modes.size();
+                Mode str = new Mode(CODE, !s.multiline, -1);
+                str.tokens.add(new Token(s.close, 0, CODE));
+                if (s.escape >= 0) str.tokens.add(new Token(String.valueOf((char) s.escape), id + 1, CODE));
+                code.tokens.add(new Token(s.open, id, CODE));
+                modes.add(str);
+                modes.add(new Mode(CODE, false, id));
+            }
+            return modes;
+        }
+
+        private static String checkToken(String t) {
+            if (t.isEmpty() || t.length() > 16) throw new IllegalArgumentException("маркер пустой или длиннее 16 символов: " + t);
+            for (int i = 0; i < t.length(); i++) {
+                char c = t.charAt(i);
+                if (c <= ' ' || c >= 0x7F) throw new IllegalArgumentException("маркер должен состоять из видимых ASCII-символов: " + t);
+            }
+            return t;
+        }
+    }
+
+    private static final class StringLiteral {
+        final String open;
+        final String close;
+        final int escape;
+        final boolean multiline;
+
+        StringLiteral(String open, String close, int escape, boolean multiline) {
+            this.open = open;
+            this.close = close;
+            this.escape = escape;
+            this.multiline = multiline;
+        }
+    }
+
+    private static final class Token {
+        final String text;
+        final int target;
+        final int flag;
+
+        Token(String text, int target, int flag) {
+            this.text = text;
+            this.target = target;
+            this.flag = flag;
+        }
+    }
+
+    private static final class Mode {
+        final int content;
+        final boolean endsAtNewline;
+        // для режима экранирования: строка, в которую возвращается любой следующий символ
+        final int escapeOf;
+        final List<Token> tokens = new ArrayList<>();
+
+        Mode(int content, boolean endsAtNewline, int escapeOf) {
+            this.content = content;
+            this.endsAtNewline = endsAtNewline;
+            this.escapeOf = escapeOf;
+        }
+
+        boolean extendable(String s) {
+            for (Token t : tokens) {
+                if (t.text.length() > s.length() && t.text.startsWith(s)) return true;
+            }
+            return false;
+        }
+
+        Token longestPrefixOf(String s) {
+            Token best = null;
+            for (Token t : tokens) {
+                if (s.startsWith(t.text) && (best == null || t.text.length() > best.text.length())) best = t;
+            }
+            return best;
+        }
+    }
+
+    /**
+     * Строит таблицу переходов обходом в ширину по состояниям (режим, неразрешённый префикс).
+     */
+    private static final class Compiler {
+        private final List<Mode> modes;
+        private final Map<String, Integer> ids = new HashMap<>();
+        private final List<Integer> modeOf = new ArrayList<>();
+        private final List<String> pendingOf = new ArrayList<>();
+        private final ArrayDeque<Integer> queue = new ArrayDeque<>();
+
+        // результат resolve
+        private int mode, flags;
+        private String pending;
+
+        Compiler(List<Mode> modes) {
+            this.modes = modes;
+        }
+
+        Dialect run(String name) {
+            idOf(0, "");
+            // состояния нумеруются в порядке постановки в очередь, поэтому строки таблицы идут по порядку
+            List<int[]> rows = new ArrayList<>();
+            List<Integer> eofs = new ArrayList<>();
+            while (!queue.isEmpty()) {
+                int s = queue.poll();
+                int m = modeOf.get(s);
+                String p = pendingOf.get(s);
+                int[] row = new int[ALPHABET];
+                for (int b = 0; b <= OTHER; b++) {
+                    resolve(m, p + (char) b, false);
+                    row[b] = (idOf(mode, pending) << 8) | flags;
+                }
+                rows.add(row);
+                resolve(m, p, true);
+                eofs.add(flags);
+            }
+            int n = modeOf.size();
+            int[] next = new int[n * ALPHABET];
+            int[] eof = new int[n];
+            for (int s = 0; s < n; s++) {
+                System.arraycopy(rows.get(s), 0, next, s * ALPHABET, ALPHABET);
+                eof[s] = eofs.get(s);
+            }
+            return new Dialect(name, next, eof);
+        }
+
+        private int idOf(int m, String p) {
+            String key = m + ":" + p;
+            Integer id = ids.get(key);
+            if (id != null) return id;
+            if (modeOf.size() == MAX_STATES) throw new IllegalArgumentException("слишком много состояний автомата");
+            int s = modeOf.size();
+            ids.put(key, s);
+            modeOf.add(m);
+            pendingOf.add(p);
+            queue.add(s);
+            return s;
+        }
+
+        private void resolve(int m, String s, boolean atEof) {
+            int f = 0;
+            while (!s.isEmpty()) {
+                Mode mode = modes.get(m);
+                if (mode.escapeOf >= 0) {
+                    char c = s.charAt(0);
+                    if (!isSpace(c)) f |= CODE | NONBLANK;
+                    m = mode.escapeOf;
+                    s = s.substring(1);
+                    continue;
+                }
+                if (!atEof && mode.extendable(s)) break;
+                Token t = mode.longestPrefixOf(s);
+                if (t != null) {
+                    f |= t.flag | NONBLANK;
+                    m = t.target;
+                    s = s.substring(t.text.length());
+                    continue;
+                }
+                char c = s.charAt(0);
+                if ((c == '\n' || c == '\r') && mode.endsAtNewline) {
+                    m = 0;
+                } else if (!isSpace(c)) {
+                    f |= mode.content | NONBLANK;
+                }
+                s = s.substring(1);
+            }
+            this.mode = m;
+            this.pending = s;
+            this.flags = f;
+        }
+
+        private static boolean isSpace(char c) {
+            return c < OTHER && Character.isWhitespace(c);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name + " (" + states() + " состояний)";
+    }
+}
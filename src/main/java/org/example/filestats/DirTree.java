@@ -0,0 +1,178 @@
+package org.example.filestats;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Дерево каталогов для разбивки статистики по подкаталогам.
+ * Узел — это номер, родитель и имя каталога; узлы создаются только для каталогов, в которых встретились файлы,
+ * и для их предков, так что память пропорциональна числу каталогов, а не файлов.
+ * Родитель всегда получает номер меньше, чем потомок, поэтому суммы по поддеревьям сворачиваются
+ * одним проходом по узлам от последнего к первому. При нескольких корнях узел {@code "."} — общий итог,
+ * а корни — его дети с именами, под которыми они выводятся в отчёте.
+ * <p>
+ * {@link #idOf} вызывается обработчиками одновременно (раз на пачку), остальное — после обработки, из одного потока.
+ */
+final class DirTree {
+
+    static final String ROOT_NAME = ".";
+
+    private final boolean byExt;
+
+    private final Map<Path, Integer> ids = new HashMap<>();
+    private int[] parents = new int[16];
+    private String[] names = new String[16];
+    private int size;
+
+    private final Map<String, Integer> extIds = new HashMap<>();
+    private final List<String> extNames = new ArrayList<>();
+
+    // ключ: (каталог, расширение); без разбивки по расширениям расширение всегда 0
+    private final GroupCounters totals = new GroupCounters();
+    private boolean rolledUp;
+
+    DirTree(Path root, boolean byExt) {
+        this(Map.of(root, ROOT_NAME), byExt);
+    }
+
+    /**
+     * @param roots корни и их имена в отчёте; у единственного корня имя не используется
+     */
+    DirTree(Map<Path, String> roots, boolean byExt) {
+        this.byExt = byExt;
+        parents[0] = -1;
+        names[0] = ROOT_NAME;
+        size = 1;
+        extNames.add("");
+        if (roots.size() == 1) {
+            ids.put(roots.keySet().iterator().next(), 0);
+        } else {
+            for (Map.Entry<Path, String> r : roots.entrySet()) {
+                if (size == parents.length) {
+                    parents = Arrays.copyOf(parents, size * 2);
+                    names = Arrays.copyOf(names, size * 2);
+                }
+                parents[size] = 0;
+                names[size] = r.getValue();
+                ids.put(r.getKey(), size++);
+            }
+        }
+    }
+
+    boolean byExt() {
+        return byExt;
+    }
+
+    synchronized int idOf(Path dir) {
+        Integer id = ids.get(dir);
+        if (id != null) return id;
+        int parent = idOf(dir.getParent());
+        if (size == parents.length) {
+            parents = Arrays.copyOf(parents, size * 2);
+            names = Arrays.copyOf(names, size * 2);
+        }
+        int node = size++;
+        parents[node] = parent;
+        names[node] = dir.getFileName().toString();
+        ids.put(dir, node);
+        return node;
+    }
+
+    /**
+     * Сливает счётчики обработчика; младшая половина ключа — id расширения в его накопителе.
+     */
+    void merge(GroupCounters local, StatsAccumulator acc) {
+        long[] src = local.counters();
+        for (int e = 0; e < local.size(); e++) {
+            long key = local.keyAt(e);
+            int ext = byExt ? extIdOf(acc.extName(GroupCounters.lo(key))) : 0;
+            totals.addCounters(totals.entryOf(GroupCounters.key(GroupCounters.hi(key), ext)), src, e * StatsAccumulator.WIDTH);
+        }
+    }
+
+    /**
+     * Превращает собственные счётчики каталогов в суммы по поддеревьям.
+     */
+    void rollUp() {
+        if (rolledUp) return;
+        rolledUp = true;
+        int[] head = new int[size];
+        Arrays.fill(head, -1);
+        int[] next = new int[Math.max(16, totals.size())];
+        for (int e = 0; e < totals.size(); e++) {
+            int dir = GroupCounters.hi(totals.keyAt(e));
+            next[e] = head[dir];
+            head[dir] = e;
+        }
+        for (int dir = size - 1; dir > 0; dir--) {
+            int parent = parents[dir];
+            for (int e = head[dir]; e >= 0; e = next[e]) {
+                int before = totals.size();
+                int pe = totals.entryOf(GroupCounters.key(parent, GroupCounters.lo(totals.keyAt(e))));
+                if (pe == before) {
+                    if (pe == next.length) next = Arrays.copyOf(next, pe * 2);
+                    next[pe] = head[parent];
+                    head[parent] = pe;
+                }
+                totals.addEntry(pe, e);
+            }
+        }
+    }
+
+    /**
+     * Строки отчёта (суммы по поддеревьям), по пути каталога и расширению.
+     */
+    List<Row> rows() {
+        rollUp();
+        String[] paths = new String[size];
+        List<Row> rows = new ArrayList<>(totals.size());
+        for (int e = 0; e < totals.size(); e++) {
+            long key = totals.keyAt(e);
+            rows.add(new Row(pathOf(GroupCounters.hi(key), paths), extNames.get(GroupCounters.lo(key)), totals, e));
+        }
+        rows.sort(Comparator.comparing((Row r) -> r.dir).thenComparing(r -> r.ext));
+        return rows;
+    }
+
+    private String pathOf(int node, String[] paths) {
+        if (paths[node] == null) {
+            int parent = parents[node];
+            paths[node] = parent <= 0 ? names[node] : pathOf(parent, paths) + "/" + names[node];
+        }
+        return paths[node];
+    }
+
+    private int extIdOf(String ext) {
+        return extIds.computeIfAbsent(ext, k -> {
+            extNames.add(k);
+            return extNames.size() - 1;
+        });
+    }
+
+    static final class Row {
+        final String dir;
+        final String ext;
+        final long files, bytes, lines, nonEmpty, comment, binary;
+
+        Row(String dir, String ext, GroupCounters c, int e) {
+            this(dir, ext, c.counter(e, StatsAccumulator.FILES), c.counter(e, StatsAccumulator.BYTES), c.counter(e, StatsAccumulator.LINES),
+                    c.counter(e, StatsAccumulator.NON_EMPTY), c.counter(e, StatsAccumulator.COMMENT), c.counter(e, StatsAccumulator.BINARY));
+        }
+
+        Row(String dir, String ext, long files, long bytes, long lines, long nonEmpty, long comment, long binary) {
+            this.dir = dir;
+            this.ext = ext;
+            this.files = files;
+            this.bytes = bytes;
+            this.lines = lines;
+            this.nonEmpty = nonEmpty;
+            this.comment = comment;
+            this.binary = binary;
+        }
+    }
+}
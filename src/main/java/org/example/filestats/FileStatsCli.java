@@ -1,39 +1,40 @@
 package org.example.filestats;
 
-import com.fasterxml.jackson.annotation.JsonProperty;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.dataformat.xml.XmlMapper;
-import com.fasterxml.jackson.dataformat.xml.annotation.JacksonXmlElementWrapper;
-import com.fasterxml.jackson.dataformat.xml.annotation.JacksonXmlProperty;
-import com.fasterxml.jackson.dataformat.xml.annotation.JacksonXmlRootElement;
 import picocli.CommandLine;
 import picocli.CommandLine.Command;
+import picocli.CommandLine.Model.ArgSpec;
+import picocli.CommandLine.Model.CommandSpec;
 import picocli.CommandLine.Option;
 import picocli.CommandLine.Parameters;
+import picocli.CommandLine.Spec;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.IOException;
-import java.io.InputStream;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.FileVisitOption;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.OutputStream;
+import java.io.Writer;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.atomic.LongAdder;
-import java.util.regex.Pattern;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 @Command(name = "filestats",
         description = "Считает статистику по файлам в каталоге (по расширениям)",
         mixinStandardHelpOptions = true,
-        version = "0.0.2")
+        version = "0.0.2",
+        subcommands = {FileStatsServer.class, FileStatsMerge.class})
 public class FileStatsCli implements Callable<Integer> {
 
-    @Parameters(index = "0", description = "Путь до каталога, по которому выполнять сбор статистики")
-    private Path path;
+    // обязателен, но проверяется в call(): picocli требовал бы его и перед подкомандой
+    @Parameters(arity = "0..*", paramLabel = "<path>", description = "Каталоги, по которым выполнять сбор статистики; статистика по нескольким складывается, а пути в отчёте начинаются с каталога, как он указан")
+    private List<Path> paths;
 
     @Option(names = "--recursive", description = "Рекурсивный обход")
     private boolean recursive = false;
@@ -50,327 +51,919 @@ public class FileStatsCli implements Callable<Integer> {
     @Option(names = "--exclude-ext", split = ",", paramLabel = "<ext1,ext2,...>", description = "Не обрабатывать указанные расширения (без точки)")
     private Set<String> excludeExt;
 
-    @Option(names = "--git-ignore", description = "Учитывать .gitignore (упрощённая поддержка)")
+    @Option(names = "--git-ignore", description = "Учитывать .gitignore (вложенные .gitignore, .git/info/exclude; игнорируемые каталоги не обходятся)")
     private boolean gitIgnore = false;
 
+    @Option(names = "--walk-threads", paramLabel = "<N>", description = "Количество потоков обхода каталогов (по умолчанию: как --threads)")
+    private int walkThreads = 0;
+
+    @Option(names = "--queue-size", paramLabel = "<N>", description = "Ёмкость очереди между обходом и обработкой, в файлах (по умолчанию: 4096)")
+    private int queueSize = 4096;
+
+    @Option(names = "--batch-size", paramLabel = "<N>", description = "Сколько файлов одного каталога передаётся обработчику одной задачей (по умолчанию: 64)")
+    private int batchSize = 64;
+
+    public enum IoMode {auto, mmap, channel, stream}
+
+    @Option(names = "--io-mode", paramLabel = "<auto|mmap|channel|stream>", description = "Способ чтения файлов (по умолчанию: auto — stream для файлов до 64 КБ, channel для остальных; mmap — только для замеров)")
+    private IoMode ioMode = IoMode.auto;
+
+    @Option(names = "--cache", paramLabel = "<file>", description = "Файл кэша статистики между запусками: перечитываются только изменившиеся файлы")
+    private Path cacheFile;
+
+    @Option(names = "--languages", paramLabel = "<file>", description = "Файл с описаниями языков (маркеры комментариев и строк); дополняет и переопределяет встроенные по расширениям")
+    private Path languagesFile;
+
+    public enum ExecutorMode {platform, virtual}
+
+    @Option(names = "--executor", paramLabel = "<platform|virtual>", description = "Пул обработки: platform — фиксированный пул потоков, virtual — виртуальный поток на файл (по умолчанию: platform)")
+    private ExecutorMode executor = ExecutorMode.platform;
+
+    @Option(names = "--max-open-files", paramLabel = "<N>", description = "Предел одновременно открытых файлов: в режиме virtual — пачек в работе, в platform — потоков обработки (по умолчанию: 256)")
+    private int maxOpenFiles = 256;
+
     public enum Output {plain, json, xml}
 
     @Option(names = "--output", paramLabel = "<plain|json|xml>", description = "Формат вывода (по умолчанию: plain)")
     private Output output = Output.plain;
 
+    public enum GroupBy {ext, dir}
+
+    @Option(names = "--group-by", split = ",", paramLabel = "<ext|dir|ext,dir>", description = "Группировка: ext — по расширениям, dir — по каталогам (суммы по поддеревьям), ext,dir — по каталогам и расширениям (по умолчанию: ext)")
+    private Set<GroupBy> groupBy;
+
+    @Option(names = "--top", paramLabel = "<N>", description = "Дополнительно вывести N самых больших файлов")
+    private int top = 0;
+
+    @Option(names = "--dedupe", description = "Считать файлы-дубликаты (одинаковое содержимое): сколько их и сколько они занимают по каждому расширению, кроме одного экземпляра")
+    private boolean dedupe = false;
+
+    @Option(names = "--lines-only", description = "Считать только файлы, байты и строки (по \\n): без пустых строк, комментариев и распознавания двоичных файлов; большие файлы считаются параллельно частями")
+    private boolean linesOnly = false;
+
+    @Option(names = "--compact", description = "Компактный JSON/XML без отступов и переводов строк")
+    private boolean compact = false;
+
+    @Option(names = "--progress", description = "Показывать в stderr строку прогресса: найдено/прочитано файлов, ошибки, МБ/с, очередь")
+    private boolean progress = false;
+
+    @Option(names = "--metrics-out", paramLabel = "<file>", description = "Записать метрики прогона в JSON: счётчики, время по фазам, глубина очереди, гистограмма времени на файл")
+    private Path metricsOut;
+
+    @Option(names = "--sample", paramLabel = "<fraction>", description = "Читать только долю файлов (0 < fraction <= 1), выбранных по хэшу пути, и оценить итоги по расширениям с 95%% доверительным интервалом")
+    private Double sample;
+
+    @Option(names = "--time-budget", paramLabel = "<duration>", description = "Бюджет времени (500ms, 30s, 5m, 1h): по его истечении обход и чтение прекращаются, итоги по найденным файлам оцениваются по прочитанным")
+    private String timeBudget;
+
+    @Option(names = "--max-read-rate", paramLabel = "<bytes/s>", description = "Предел скорости чтения содержимого файлов на все потоки, байт/с (суффиксы K, M, G)")
+    private String maxReadRate;
+
+    @Option(names = "--shard", paramLabel = "<i/n>", description = "Обрабатывать только свою часть файлов: те, у которых хэш пути относительно каталога по модулю n равен i (0 <= i < n)")
+    private String shard;
+
+    @Option(names = "--emit-partial", paramLabel = "<file>", description = "Вместо отчёта записать частичный результат для filestats merge (\"-\" — в stdout)")
+    private Path emitPartial;
+
+    @Option(names = "--watch", description = "После отчёта следить за изменениями (WatchService) и печатать обновлённый отчёт; пересчитываются только изменившиеся файлы")
+    private boolean watch = false;
+
+    @Option(names = "--watch-debounce", paramLabel = "<ms>", description = "Сколько ждать затишья после изменения, прежде чем печатать отчёт (по умолчанию: 500)")
+    private long watchDebounce = 500;
+
+    @Option(names = "--connect", arity = "0..1", paramLabel = "<socket>", fallbackValue = "", preprocessor = AttachedOnly.class,
+            description = "Выполнить запрос на сервере filestats serve (по умолчанию — его сокет по умолчанию; другой — только как --connect=<socket>); пути разрешаются относительно текущего каталога")
+    private String connect;
+
+    // --connect берёт сокет только через «=»: в «--connect .» точка — каталог, а не сокет
+    static final class AttachedOnly implements CommandLine.IParameterPreprocessor {
+        @Override
+        public boolean preprocess(Stack<String> args, CommandSpec spec, ArgSpec arg, Map<String, Object> info) {
+            if (" ".equals(info.get("separator"))) args.push("");
+            return false;
+        }
+    }
+
+    @Spec
+    private CommandSpec spec;
+
+    private static final Path[] END_OF_WALK = new Path[0];
+    // зовёт обработчик помочь с частями большого файла (ChunkReader)
+    private static final Path[] HELP = new Path[0];
+    // с --lines-only файлы от этого размера считаются параллельно частями
+    private static final long PARALLEL_THRESHOLD = 4 * ContentReader.CHUNK;
+
+    private int shardIndex = 0;
+    private int shardCount = 1;
+    // при --sample/--time-budget и --max-read-rate
+    private Sampler sampler;
+    private ReadLimiter limiter;
+    // части больших файлов для --lines-only на время прогона; вне прогона — null
+    private ChunkReader chunks;
+
+    private Languages languages = Languages.builtin();
+
+    // null, если метрики не запрошены
+    private ScanMetrics metrics;
+
+    // при запуске на сервере: каталог клиента, его вывод и кэши сервера; иначе null и System.out/err
+    private final Path workDir;
+    private final PrintStream out;
+    private final PrintStream err;
+    private final ResidentIndex resident;
+
+    public FileStatsCli() {
+        this(null, System.out, System.err, null);
+    }
+
+    FileStatsCli(Path workDir, PrintStream out, PrintStream err, ResidentIndex resident) {
+        this.workDir = workDir;
+        this.out = out;
+        this.err = err;
+        this.resident = resident;
+    }
+
     public static void main(String[] args) {
-        int code = new CommandLine(new FileStatsCli()).execute(args);
-        System.exit(code);
+        String connect = FileStatsClient.connectOption(args);
+        if (connect != null) System.exit(FileStatsClient.run(FileStatsClient.socket(connect), args));
+        System.exit(new CommandLine(new FileStatsCli()).execute(args));
     }
 
     @Override
     public Integer call() throws Exception {
-        Path root = path.toAbsolutePath().normalize();
-        if (!Files.isDirectory(root)) {
-            throw new CommandLine.ParameterException(new CommandLine(this), "Путь не является каталогом: " + root);
+        if (paths == null || paths.isEmpty()) {
+            throw new CommandLine.ParameterException(spec.commandLine(), "Не указан ни один каталог <path>");
+        }
+        if (connect != null && resident == null) {
+            return FileStatsClient.run(FileStatsClient.socket(connect), spec.commandLine().getParseResult().originalArgs().toArray(new String[0]));
+        }
+        List<ScanRoot> roots = new ArrayList<>(paths.size());
+        for (Path p : paths) {
+            Path root = resolve(p).toAbsolutePath().normalize();
+            if (!Files.isDirectory(root)) {
+                throw new CommandLine.ParameterException(new CommandLine(this), "Путь не является каталогом: " + root);
+            }
+            for (ScanRoot r : roots) {
+                if (root.startsWith(r.path) || r.path.startsWith(root)) {
+                    throw new CommandLine.ParameterException(new CommandLine(this), "Каталоги совпадают или вложены друг в друга: " + r.path + ", " + root);
+                }
+            }
+            String label = p.normalize().toString().replace('\\', '/');
+            roots.add(new ScanRoot(root, label.isEmpty() ? root.toString() : label, paths.size() > 1));
         }
+        cacheFile = resolve(cacheFile);
+        languagesFile = resolve(languagesFile);
+        metricsOut = resolve(metricsOut);
+        boolean partialToOut = emitPartial != null && emitPartial.toString().equals("-");
+        if (!partialToOut) emitPartial = resolve(emitPartial);
+        if (shard != null) parseShard();
         if (includeExt != null) includeExt = toLower(includeExt);
         if (excludeExt != null) excludeExt = toLower(excludeExt);
 
-        List<Path> files = listFiles(root);
-        Map<String, Stats> stats = compute(files, root);
+        if (groupBy == null || groupBy.isEmpty()) groupBy = EnumSet.of(GroupBy.ext);
+        if (watch && (groupBy.contains(GroupBy.dir) || top > 0 || resident != null || roots.size() > 1 || emitPartial != null)) {
+            throw new CommandLine.ParameterException(new CommandLine(this),
+                    "--watch поддерживается только для одного каталога, с --group-by=ext, без --top и --emit-partial и не на сервере");
+        }
+        if (linesOnly && emitPartial != null) {
+            throw new CommandLine.ParameterException(new CommandLine(this), "--lines-only не поддерживается с --emit-partial");
+        }
+        if (dedupe && (groupBy.contains(GroupBy.dir) || watch || emitPartial != null)) {
+            throw new CommandLine.ParameterException(new CommandLine(this),
+                    "--dedupe поддерживается только с --group-by=ext, без --watch и --emit-partial (дубликаты между частями не ищутся)");
+        }
+
+        if (sample != null && !(sample > 0 && sample <= 1)) {
+            throw new CommandLine.ParameterException(new CommandLine(this), "--sample ожидает долю в (0, 1]: " + sample);
+        }
+        long budgetMillis = timeBudget != null ? parseDuration(timeBudget) : 0;
+        if ((sample != null || timeBudget != null) && (groupBy.contains(GroupBy.dir) || top > 0 || dedupe || watch || emitPartial != null)) {
+            throw new CommandLine.ParameterException(new CommandLine(this),
+                    "--sample и --time-budget оценивают только итоги по расширениям: без --group-by=dir, --top, --dedupe, --watch и --emit-partial");
+        }
+        if (maxReadRate != null) limiter = new ReadLimiter(parseBytes(maxReadRate));
+
+        if (languagesFile != null) {
+            try {
+                languages = Languages.load(languagesFile);
+            } catch (IllegalArgumentException e) {
+                throw new CommandLine.ParameterException(new CommandLine(this), e.getMessage());
+            }
+        }
 
-        switch (output) {
-            case json -> {
-                System.out.println(toJson(stats));
+        if (progress || metricsOut != null) {
+            metrics = new ScanMetrics();
+            metrics.start(progress ? err : null);
+        }
+        if (sample != null || timeBudget != null) sampler = new Sampler(sample != null ? sample : 1, budgetMillis);
+        ResidentIndex.Slot slot = resident != null ? resident.slot(rootPaths(roots), fingerprint(), filterKey()) : null;
+        if (slot != null) slot.lock.lock();
+        TreeWatcher watcher = null;
+        try {
+            ReportWriter.Report report;
+            StatsCache cache = null;
+            try {
+                if (slot != null) {
+                    report = resident(slot, roots);
+                } else {
+                    long t = System.nanoTime();
+                    // --watch без --cache держит вклад каждого файла в кэше в памяти
+                    cache = cacheFile != null ? StatsCache.load(cacheFile, fingerprint(), err)
+                            : watch ? StatsCache.empty(null, fingerprint()) : null;
+                    // следим до первого обхода: события, пришедшие во время него, ждут в очереди первой пачкой
+                    if (watch) watcher = watchers(roots).get(0);
+                    mark(ScanMetrics.Phase.cache, t);
+                    report = compute(roots, cache);
+                    save(cache);
+                }
+            } finally {
+                if (slot != null) slot.lock.unlock();
+                if (metrics != null) metrics.stop();
             }
-            case xml -> {
-                System.out.println(toXml(stats));
+
+            long t = System.nanoTime();
+            if (emitPartial != null) {
+                List<String> names = rootPaths(roots).stream().map(Path::toString).toList();
+                List<String> labels = roots.stream().map(r -> r.name).toList();
+                PartialResult part = new PartialResult(languages.fingerprint(), names, labels, selection(), shardIndex, shardCount, top, report);
+                if (partialToOut) {
+                    part.write(out);
+                } else {
+                    try (OutputStream o = Files.newOutputStream(emitPartial)) {
+                        part.write(o);
+                    }
+                }
+            } else {
+                render(report);
             }
-            default -> {
-                System.out.println(toPlain(stats));
+            mark(ScanMetrics.Phase.render, t);
+            if (metricsOut != null) {
+                try (Writer w = Files.newBufferedWriter(metricsOut)) {
+                    metrics.writeJson(w);
+                }
             }
+            return watch ? watch(roots.get(0), watcher, cache, report.byExt) : 0;
+        } finally {
+            if (watcher != null) watcher.close();
         }
-        return 0;
     }
 
-    private List<Path> listFiles(Path root) throws IOException {
-        int depth = recursive ? (maxDepth != null ? Math.max(1, maxDepth) : Integer.MAX_VALUE) : 1;
-        try (Stream<Path> stream = Files.walk(root, depth, FileVisitOption.FOLLOW_LINKS)) {
-            List<Path> all = stream.filter(p -> !Files.isDirectory(p)).collect(Collectors.toList());
-            if (includeExt != null && !includeExt.isEmpty()) {
-                all = all.stream().filter(p -> includeExt.contains(extOf(p))).collect(Collectors.toList());
-            }
-            if (excludeExt != null && !excludeExt.isEmpty()) {
-                all = all.stream().filter(p -> !excludeExt.contains(extOf(p))).collect(Collectors.toList());
-            }
-            if (gitIgnore) {
-                GitIgnore gi = GitIgnore.load(root);
-                all = all.stream().filter(p -> !gi.ignored(root.relativize(p))).collect(Collectors.toList());
+    private void save(StatsCache cache) throws IOException {
+        if (cacheFile == null) return;
+        long t = System.nanoTime();
+        // по выборке прочитана часть файлов: записи остальных сохраняются прежними
+        (sampler != null ? cache.carryOver(cacheFile) : cache).save();
+        mark(ScanMetrics.Phase.cache, t);
+    }
+
+    /**
+     * Отчёт на сервере. Пока слот следит за каталогами и в нём есть отчёт с теми же опциями, дерево не обходится:
+     * без событий отчёт отдаётся как есть, итоги по расширениям обновляются по изменившимся путям.
+     * Иначе — полный обход с кэшем слота, после которого слот следит за каталогами.
+     * Выборка каждый раз считается заново.
+     */
+    private ReportWriter.Report resident(ResidentIndex.Slot slot, List<ScanRoot> roots) throws Exception {
+        String key = reportKey(roots);
+        ReportWriter.Report last = sampler == null ? slot.report(key) : null;
+        List<TreeWatcher.Changes> changes = last != null ? slot.poll(err) : null;
+        if (changes != null) {
+            if (changes.stream().allMatch(c -> c.paths.isEmpty())) return last;
+            if (last.dirs == null && last.top == null && !last.dedupe) {
+                long t = System.nanoTime();
+                Map<String, Stats> byExt = copyOf(last.byExt);
+                ContentReader reader = new ContentReader(ioMode, limiter);
+                Worker w = new Worker();
+                StatsCache cache = slot.cache();
+                for (int i = 0; i < roots.size(); i++) apply(changes.get(i).paths, roots.get(i), cache, reader, w, slot.watcher(i), byExt);
+                mark(ScanMetrics.Phase.process, t);
+                save(cache);
+                ReportWriter.Report report = new ReportWriter.Report(byExt, linesOnly);
+                slot.keep(key, report);
+                return report;
             }
-            return all;
         }
+        long t = System.nanoTime();
+        StatsCache cache = slot.open(cacheFile, err);
+        if (sampler == null) slot.watch(() -> watchers(roots), err);
+        mark(ScanMetrics.Phase.cache, t);
+        ReportWriter.Report report = compute(roots, cache);
+        save(cache);
+        slot.keep(key, sampler == null ? report : null);
+        return report;
     }
 
-    private Map<String, Stats> compute(List<Path> files, Path root) throws Exception {
-        Map<String, Stats> statsByExt = new ConcurrentHashMap<>();
-        int nThreads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
-        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+    private List<TreeWatcher> watchers(List<ScanRoot> roots) throws IOException {
+        List<TreeWatcher> watchers = new ArrayList<>(roots.size());
         try {
-            List<Callable<Void>> tasks = new ArrayList<>();
-            for (Path f : files) {
-                tasks.add(() -> {
-                    processFile(f, root, statsByExt);
-                    return null;
-                });
-            }
-            List<Future<Void>> futures = pool.invokeAll(tasks);
-            for (Future<Void> f : futures) {
-                try {
-                    f.get();
-                } catch (Exception ignore) {
-                }
+            for (ScanRoot r : roots) {
+                watchers.add(new TreeWatcher(r.path, depth(), fileFilter(r), gitIgnore ? GitIgnore.load(r.path, err) : null, err));
             }
-        } finally {
-            pool.shutdown();
+        } catch (IOException | RuntimeException e) {
+            for (TreeWatcher w : watchers) w.close();
+            throw e;
         }
-        return statsByExt;
+        return watchers;
     }
 
-    private void processFile(Path file, Path root, Map<String, Stats> statsByExt) {
+    /**
+     * Опции, от которых зависит, какие файлы попадают в обход (без шарда).
+     */
+    private String selection() {
+        return "depth=" + (depth() == Integer.MAX_VALUE ? "*" : depth()) + ";gitignore=" + gitIgnore
+                + ";include=" + (includeExt != null && !includeExt.isEmpty() ? new TreeSet<>(includeExt) : "*")
+                + ";exclude=" + (excludeExt != null ? new TreeSet<>(excludeExt) : "[]");
+    }
+
+    private String filterKey() {
+        return selection() + ";shard=" + shardIndex + "/" + shardCount;
+    }
+
+    // опции, от которых зависит отчёт по уже отобранным файлам (кроме формата вывода)
+    private String reportKey(List<ScanRoot> roots) {
+        return roots.stream().map(r -> r.label).toList() + ";group=" + groupBy + ";top=" + top + ";dedupe=" + dedupe;
+    }
+
+    private static Map<String, Stats> copyOf(Map<String, Stats> byExt) {
+        Map<String, Stats> copy = new TreeMap<>();
+        for (Map.Entry<String, Stats> e : byExt.entrySet()) {
+            Stats from = e.getValue();
+            Stats to = new Stats();
+            to.files.add(from.files.sum());
+            to.bytes.add(from.bytes.sum());
+            to.totalLines.add(from.totalLines.sum());
+            to.nonEmptyLines.add(from.nonEmptyLines.sum());
+            to.commentLines.add(from.commentLines.sum());
+            to.binaryFiles.add(from.binaryFiles.sum());
+            copy.put(e.getKey(), to);
+        }
+        return copy;
+    }
+
+    // записи кэша --lines-only (без пустых строк и комментариев) не годятся для полного подсчёта и наоборот
+    private long fingerprint() {
+        return linesOnly ? ~languages.fingerprint() : languages.fingerprint();
+    }
+
+    private void parseShard() {
+        String[] parts = shard.split("/", -1);
         try {
-            long bytes = Files.size(file);
-            String ext = extOf(file);
-            boolean javaLike = ext.equals("java");
-            boolean bashLike = ext.equals("sh") || ext.equals("bash");
-
-            long total = 0, nonEmpty = 0, comment = 0;
-            try (BufferedReader br = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
-                String line;
-                while ((line = br.readLine()) != null) {
-                    total++;
-                    String trimmedRight = trimRight(line);
-                    String ltrim = ltrim(line);
-                    if (!trimmedRight.isBlank()) {
-                        nonEmpty++;
-                        if (javaLike && ltrim.startsWith("//")) comment++;
-                        else if (bashLike && ltrim.startsWith("#")) comment++;
-                    }
-                }
-            } catch (Exception e) {
-                try (InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
-                    int b;
-                    long lines = 0;
-                    while ((b = in.read()) != -1) if (b == '\n') lines++;
-                    total = lines;
-                } catch (Exception ignored) {
-                }
-            }
+            if (parts.length != 2) throw new NumberFormatException();
+            shardIndex = Integer.parseInt(parts[0].trim());
+            shardCount = Integer.parseInt(parts[1].trim());
+        } catch (NumberFormatException e) {
+            shardCount = 0;
+        }
+        if (shardCount < 1 || shardIndex < 0 || shardIndex >= shardCount) {
+            throw new CommandLine.ParameterException(new CommandLine(this), "--shard ожидает i/n, где 0 <= i < n: " + shard);
+        }
+    }
 
-            Stats st = statsByExt.computeIfAbsent(ext, k -> new Stats());
-            st.files.increment();
-            st.bytes.add(bytes);
-            st.totalLines.add(total);
-            st.nonEmptyLines.add(nonEmpty);
-            st.commentLines.add(comment);
-        } catch (Exception e) {
-            System.err.println("Не удалось обработать файл: " + root.relativize(file) + " -> " + e.getMessage());
+    private long parseDuration(String value) {
+        String v = value.trim().toLowerCase(Locale.ROOT);
+        long unit = 1000;
+        int end = v.length();
+        if (v.endsWith("ms")) {
+            unit = 1;
+            end -= 2;
+        } else if (v.endsWith("s")) {
+            end -= 1;
+        } else if (v.endsWith("m")) {
+            unit = 60_000;
+            end -= 1;
+        } else if (v.endsWith("h")) {
+            unit = 3_600_000;
+            end -= 1;
         }
+        try {
+            long millis = Math.round(Double.parseDouble(v.substring(0, end)) * unit);
+            if (millis > 0) return millis;
+        } catch (NumberFormatException ignored) {
+        }
+        throw new CommandLine.ParameterException(new CommandLine(this), "Некорректная длительность: " + value);
     }
 
-    private static String extOf(Path p) {
-        String name = p.getFileName().toString();
-        int dot = name.lastIndexOf('.');
-        if (dot <= 0 || dot == name.length() - 1) return "(noext)";
-        return name.substring(dot + 1).toLowerCase(Locale.ROOT);
+    private long parseBytes(String value) {
+        String v = value.trim().toUpperCase(Locale.ROOT);
+        long unit = 1;
+        char last = v.isEmpty() ? ' ' : v.charAt(v.length() - 1);
+        if (last == 'K' || last == 'M' || last == 'G') {
+            unit = last == 'K' ? 1L << 10 : last == 'M' ? 1L << 20 : 1L << 30;
+            v = v.substring(0, v.length() - 1);
+        }
+        try {
+            long bytes = Math.round(Double.parseDouble(v) * unit);
+            if (bytes > 0) return bytes;
+        } catch (NumberFormatException ignored) {
+        }
+        throw new CommandLine.ParameterException(new CommandLine(this), "Некорректная скорость чтения: " + value);
     }
 
-    private static String ltrim(String s) {
-        int i = 0;
-        while (i < s.length() && Character.isWhitespace(s.charAt(i))) i++;
-        return s.substring(i);
+    private static List<Path> rootPaths(List<ScanRoot> roots) {
+        return roots.stream().map(r -> r.path).toList();
     }
 
-    private static String trimRight(String s) {
-        int i = s.length() - 1;
-        while (i >= 0 && Character.isWhitespace(s.charAt(i))) i--;
-        return s.substring(0, i + 1);
+    private void render(ReportWriter.Report report) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, out.charset()));
+        ReportWriter.write(output, compact, report, writer);
     }
 
-    private static Set<String> toLower(Set<String> in) {
-        return in.stream().map(x -> x.startsWith(".") ? x.substring(1) : x).map(x -> x.toLowerCase(Locale.ROOT)).collect(Collectors.toSet());
+    /**
+     * Цикл --watch: по каждой пачке изменений вычитает прежний вклад затронутых файлов из {@code byExt},
+     * добавляет новый и печатает отчёт, если итоги изменились. Первая пачка — события, пришедшие за время
+     * первого обхода. Завершается по прерыванию потока.
+     */
+    private int watch(ScanRoot scanRoot, TreeWatcher watcher, StatsCache cache, Map<String, Stats> byExt) throws Exception {
+        ContentReader reader = new ContentReader(ioMode, limiter);
+        Worker w = new Worker();
+        Path root = scanRoot.path;
+        while (true) {
+            TreeWatcher.Changes changes;
+            try {
+                changes = watcher.next(watchDebounce, err);
+            } catch (InterruptedException e) {
+                return 0;
+            }
+            if (changes == null) {
+                err.println("Каталог больше не существует: " + root);
+                return 1;
+            }
+            boolean changed;
+            if (changes.rescan) {
+                cache = cache.carryOver(cacheFile);
+                byExt = compute(List.of(scanRoot), cache).byExt;
+                changed = true;
+            } else {
+                changed = apply(changes.paths, scanRoot, cache, reader, w, watcher, byExt);
+            }
+            if (!changed) continue;
+            if (cacheFile != null) cache.save();
+            render(new ReportWriter.Report(byExt, linesOnly));
+        }
     }
 
-    private String toPlain(Map<String, Stats> map) {
-        List<String> exts = new ArrayList<>(map.keySet());
-        Collections.sort(exts);
-        StringBuilder sb = new StringBuilder();
-        sb.append(String.format("%-8s %-7s %-11s %-7s %-9s %-8s%n", "Ext", "Files", "Bytes", "Lines", "NonEmpty", "Comment"));
-        for (String ext : exts) {
-            Stats s = map.get(ext);
-            sb.append(String.format("%-8s %-7d %-11d %-7d %-9d %-8d%n",
-                    ext, s.files.sum(), s.bytes.sum(), s.totalLines.sum(), s.nonEmptyLines.sum(), s.commentLines.sum()));
+    private boolean apply(Set<Path> paths, ScanRoot scanRoot, StatsCache cache, ContentReader reader, Worker w,
+                          TreeWatcher watcher, Map<String, Stats> byExt) {
+        // сначала убираем всё затронутое (удалённый каталог — целиком), потом добавляем то, что есть сейчас
+        Map<String, StatsCache.Entry> removed = new HashMap<>();
+        for (Path p : paths) {
+            for (Map.Entry<String, StatsCache.Entry> e : cache.remove(scanRoot.key(p), watcher.knownDir(p)).entrySet()) {
+                removed.put(e.getKey(), e.getValue());
+                addDelta(byExt, e.getValue(), -1);
+            }
+        }
+        boolean changed = false;
+        for (Path p : paths) {
+            if (!Files.exists(p, LinkOption.NOFOLLOW_LINKS) || Files.isDirectory(p) || !watcher.included(p, err)) continue;
+            w.prefix = scanRoot.prefix;
+            processFile(p, scanRoot.path, reader, cache, w);
+            String rel = scanRoot.key(p);
+            StatsCache.Entry now = cache.get(rel);
+            if (now == null) continue;
+            addDelta(byExt, now, 1);
+            StatsCache.Entry old = removed.remove(rel);
+            if (old == null || !old.sameStats(now)) changed = true;
         }
-        return sb.toString();
+        return changed || !removed.isEmpty();
     }
 
-    private String toJson(Map<String, Stats> map) throws IOException {
-        ObjectMapper om = new ObjectMapper();
-        Map<String, SimpleStats> dto = map.entrySet().stream().collect(Collectors.toMap(
-                Map.Entry::getKey,
-                e -> SimpleStats.from(e.getValue())
-        ));
-        return om.writerWithDefaultPrettyPrinter().writeValueAsString(dto);
+    private static void addDelta(Map<String, Stats> byExt, StatsCache.Entry e, int sign) {
+        Stats s = byExt.computeIfAbsent(e.ext, k -> new Stats());
+        s.files.add(sign);
+        s.bytes.add(sign * e.size);
+        s.totalLines.add(sign * e.totalLines);
+        s.nonEmptyLines.add(sign * e.nonEmptyLines);
+        s.commentLines.add(sign * e.commentLines);
+        if (e.binary) s.binaryFiles.add(sign);
+        if (s.files.sum() == 0) byExt.remove(e.ext);
     }
 
-    private String toXml(Map<String, Stats> map) throws IOException {
-        List<ExtEntry> entries = new ArrayList<>();
-        for (Map.Entry<String, Stats> e : map.entrySet()) {
-            entries.add(ExtEntry.from(e.getKey(), e.getValue()));
-        }
-        StatsXml xml = new StatsXml(entries.stream()
-                .sorted((a, b) -> a.name.compareTo(b.name)).collect(Collectors.toList()));
-        XmlMapper xm = new XmlMapper();
-        return xm.writerWithDefaultPrettyPrinter().writeValueAsString(xml);
+    private static String relOf(Path root, Path file) {
+        return root.relativize(file).toString().replace('\\', '/');
     }
 
-    static class Stats {
-        LongAdder files = new LongAdder();
-        LongAdder bytes = new LongAdder();
-        LongAdder totalLines = new LongAdder();
-        LongAdder nonEmptyLines = new LongAdder();
-        LongAdder commentLines = new LongAdder();
+    private Path resolve(Path p) {
+        return p != null && workDir != null ? workDir.resolve(p) : p;
+    }
+
+    /**
+     * Добавляет к фазе время с момента {@code since} и возвращает текущее время.
+     */
+    private long mark(ScanMetrics.Phase phase, long since) {
+        long now = System.nanoTime();
+        if (metrics != null) metrics.time(phase, now - since);
+        return now;
     }
 
-    static class SimpleStats {
-        public long files, bytes, lines, nonEmpty, comment;
+    private TreeWalker newWalker(ScanRoot root) {
+        int parallelism = walkThreads > 0 ? walkThreads : threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        return new TreeWalker(root.path, depth(), fileFilter(root), gitIgnore ? GitIgnore.load(root.path, err) : null, parallelism, batchSize, metrics, err,
+                sampler != null ? sampler::stopWalk : null);
+    }
+
+    private int depth() {
+        return recursive ? (maxDepth != null ? Math.max(1, maxDepth) : Integer.MAX_VALUE) : 1;
+    }
 
-        static SimpleStats from(Stats s) {
-            SimpleStats r = new SimpleStats();
-            r.files = s.files.sum();
-            r.bytes = s.bytes.sum();
-            r.lines = s.totalLines.sum();
-            r.nonEmpty = s.nonEmptyLines.sum();
-            r.comment = s.commentLines.sum();
-            return r;
+    private Predicate<Path> extFilter() {
+        Predicate<Path> filter = p -> true;
+        if (includeExt != null && !includeExt.isEmpty()) {
+            filter = filter.and(p -> includeExt.contains(extOf(p)));
         }
+        if (excludeExt != null && !excludeExt.isEmpty()) {
+            filter = filter.and(p -> !excludeExt.contains(extOf(p)));
+        }
+        return filter;
     }
 
-    @JacksonXmlRootElement(localName = "stats")
-    static class StatsXml {
-        @JacksonXmlElementWrapper(useWrapping = false)
-        @JsonProperty("ext")
-        public List<ExtEntry> items;
+    private Predicate<Path> fileFilter(ScanRoot root) {
+        Predicate<Path> filter = extFilter();
+        if (shardCount > 1) filter = filter.and(p -> shardOf(root.key(p), shardCount) == shardIndex);
+        if (sampler != null) filter = filter.and(p -> sampler.take(p, root.key(p)));
+        return filter;
+    }
 
-        public StatsXml() {
+    /**
+     * Шард файла по его ключу (пути относительно каталога): не зависит ни от машины, ни от запуска.
+     */
+    static int shardOf(String key, int shards) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        h *= 0x45D9F3B;
+        h ^= h >>> 16;
+        return Math.floorMod(h, shards);
+    }
+
+    private static ScanRoot rootOf(List<ScanRoot> roots, Path file) {
+        if (roots.size() > 1) {
+            for (ScanRoot r : roots) if (file.startsWith(r.path)) return r;
         }
+        return roots.get(0);
+    }
 
-        public StatsXml(List<ExtEntry> items) {
-            this.items = items;
+    private ReportWriter.Report compute(List<ScanRoot> roots, StatsCache cache) throws Exception {
+        ContentReader reader = new ContentReader(ioMode, limiter);
+        DirTree dirs = null;
+        if (groupBy.contains(GroupBy.dir)) {
+            Map<Path, String> labels = new LinkedHashMap<>();
+            for (ScanRoot r : roots) labels.put(r.path, r.label);
+            dirs = new DirTree(labels, groupBy.contains(GroupBy.ext));
+        }
+        long t = System.nanoTime();
+        Dedupe dupes = dedupe ? new Dedupe() : null;
+        List<Worker> done = executor == ExecutorMode.virtual
+                ? computeVirtual(roots, reader, cache, dirs, dupes)
+                : computePlatform(roots, reader, cache, dirs, dupes);
+        t = mark(ScanMetrics.Phase.process, t);
+        Map<String, Stats> statsByExt = dirs == null ? new HashMap<>() : null;
+        Map<String, double[]> moments = sampler != null ? new HashMap<>() : null;
+        TopFiles largest = top > 0 ? newTop(roots) : null;
+        for (Worker w : done) {
+            if (statsByExt != null) w.acc.mergeInto(statsByExt);
+            if (moments != null) w.moments.mergeInto(moments, w.acc);
+            if (dirs != null) dirs.merge(w.dirs, w.acc);
+            if (largest != null) w.top.mergeInto(largest);
+            if (metrics != null) metrics.addLatency(w.latency);
+        }
+        t = mark(ScanMetrics.Phase.merge, t);
+        if (dupes != null) {
+            for (Map.Entry<String, long[]> e : dupes.byExt().entrySet()) {
+                Stats s = statsByExt.get(e.getKey());
+                s.dupFiles.add(e.getValue()[0]);
+                s.dupBytes.add(e.getValue()[1]);
+            }
+            if (metrics != null) metrics.rehashed.add(dupes.rehashed());
+        }
+        Map<String, Sampler.Estimate> estimates = null;
+        if (sampler != null) {
+            if (sampler.walkStopped()) err.println("Бюджет времени исчерпан: обход остановлен, итоги — только по уже найденным файлам");
+            estimates = new HashMap<>();
+            statsByExt = sampler.extrapolate(statsByExt, moments, estimates);
         }
+        return new ReportWriter.Report(statsByExt, dirs != null ? dirs.rows() : null, dirs != null && dirs.byExt(),
+                largest != null ? largest.sorted() : null, dedupe, estimates, linesOnly);
     }
 
-    static class ExtEntry {
-        @JacksonXmlProperty(isAttribute = true, localName = "name")
-        public String name;
-        public long files, bytes, lines, nonEmpty, comment;
+    // при равных размерах порядок — по пути в отчёте, с именем каталога обхода
+    private TopFiles newTop(List<ScanRoot> roots) {
+        return new TopFiles(top, f -> rootOf(roots, f).key(f));
+    }
 
-        public ExtEntry() {
-        }
+    private int poolSize() {
+        return Math.min(threads > 0 ? threads : Runtime.getRuntime().availableProcessors(), Math.max(1, maxOpenFiles));
+    }
 
-        static ExtEntry from(String name, Stats s) {
-            ExtEntry e = new ExtEntry();
-            e.name = name;
-            e.files = s.files.sum();
-            e.bytes = s.bytes.sum();
-            e.lines = s.totalLines.sum();
-            e.nonEmpty = s.nonEmptyLines.sum();
-            e.comment = s.commentLines.sum();
-            return e;
+    private Worker newWorker(List<ScanRoot> roots, DirTree dirs, Dedupe dupes) {
+        return new Worker(dirs != null ? new GroupCounters() : null, top > 0 ? newTop(roots) : null,
+                metrics != null ? new ScanMetrics.Latency() : null, dupes, sampler != null ? new Sampler.Moments() : null);
+    }
+
+    private List<Worker> computePlatform(List<ScanRoot> roots, ContentReader reader, StatsCache cache, DirTree dirs, Dedupe dupes) throws Exception {
+        int nThreads = poolSize();
+        int capacity = Math.max(1, queueSize / Math.max(1, batchSize));
+        BlockingQueue<Path[]> queue = new ArrayBlockingQueue<>(capacity);
+        if (metrics != null) metrics.queue(capacity, queue::size);
+        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+        // ждущие пачку обработчики просыпаются по HELP; занятые заглядывают в очередь частей после каждой пачки
+        chunks = new ChunkReader(reader, n -> {
+            for (int i = 0; i < Math.min(n, nThreads - 1); i++) if (!queue.offer(HELP)) return;
+        });
+        try {
+            List<Future<Worker>> futures = new ArrayList<>(nThreads);
+            for (int i = 0; i < nThreads; i++) {
+                futures.add(pool.submit(() -> {
+                    Worker w = newWorker(roots, dirs, dupes);
+                    Path[] batch;
+                    while ((batch = queue.take()) != END_OF_WALK) {
+                        if (batch != HELP) processBatch(batch, roots, reader, cache, dirs, w);
+                        chunks.help(w.buffers);
+                    }
+                    return w;
+                }));
+            }
+            long t = System.nanoTime();
+            for (ScanRoot r : roots) newWalker(r).walk(batch -> enqueue(queue, batch, futures));
+            mark(ScanMetrics.Phase.walk, t);
+            for (int i = 0; i < nThreads; i++) enqueue(queue, END_OF_WALK, futures);
+            List<Worker> workers = new ArrayList<>(nThreads);
+            for (Future<Worker> f : futures) {
+                try {
+                    workers.add(f.get());
+                } catch (ExecutionException e) {
+                    throw workerFailed(e.getCause());
+                }
+            }
+            if (dupes != null) rehash(dupes, reader, pool, workers, roots);
+            return workers;
+        } finally {
+            chunks = null;
+            pool.shutdownNow();
         }
     }
 
-    static class GitIgnore {
-        private final List<Rule> rules;
+    // дочитывание для --dedupe — в том же пуле и буферами тех же обработчиков, когда все пачки обработаны
+    private void rehash(Dedupe dupes, ContentReader reader, ExecutorService executor, List<Worker> workers, List<ScanRoot> roots)
+            throws InterruptedException {
+        long t = System.nanoTime();
+        List<ContentReader.Buffers> buffers = new ArrayList<>(workers.size());
+        for (Worker w : workers) buffers.add(w.buffers);
+        dupes.finish(reader, executor, buffers, f -> rootOf(roots, f).key(f), err);
+        mark(ScanMetrics.Phase.dedupe, t);
+    }
 
-        private GitIgnore(List<Rule> rules) {
-            this.rules = rules;
+    // обработчик завершается только по END_OF_WALK, так что завершившийся раньше — упал;
+    // без этой проверки обход навсегда повис бы на полной очереди
+    private static void enqueue(BlockingQueue<Path[]> queue, Path[] batch, List<Future<Worker>> workers) throws InterruptedException {
+        while (!queue.offer(batch, 100, TimeUnit.MILLISECONDS)) {
+            for (Future<Worker> f : workers) {
+                if (f.state() == Future.State.FAILED) throw workerFailed(f.exceptionNow());
+            }
         }
+    }
+
+    private static IllegalStateException workerFailed(Throwable cause) {
+        return new IllegalStateException("Ошибка в обработчике файлов: " + cause, cause);
+    }
 
-        static GitIgnore load(Path root) {
-            Path gi = root.resolve(".gitignore");
-            if (!Files.exists(gi)) return new GitIgnore(List.of());
-            List<Rule> rs = new ArrayList<>();
-            try (BufferedReader br = Files.newBufferedReader(gi, StandardCharsets.UTF_8)) {
-                String line;
-                while ((line = br.readLine()) != null) {
-                    String raw = line.trim();
-                    if (raw.isEmpty() || raw.startsWith("#")) continue;
-                    boolean neg = raw.startsWith("!");
-                    String pat = neg ? raw.substring(1) : raw;
-                    boolean dirOnly = pat.endsWith("/");
-                    if (dirOnly) pat = pat.substring(0, pat.length() - 1);
-                    Pattern regex = toRegex(pat);
-                    rs.add(new Rule(regex, neg, dirOnly));
+    private List<Worker> computeVirtual(List<ScanRoot> roots, ContentReader reader, StatsCache cache, DirTree dirs, Dedupe dupes) throws Exception {
+        // свободные обработчики: их число ограничивает количество пачек (и открытых файлов) в работе
+        int limit = Math.max(1, maxOpenFiles);
+        BlockingQueue<Worker> idle = new ArrayBlockingQueue<>(limit);
+        List<Worker> workers = new ArrayList<>(limit);
+        for (int i = 0; i < limit; i++) {
+            Worker w = newWorker(roots, dirs, dupes);
+            workers.add(w);
+            idle.add(w);
+        }
+        if (metrics != null) metrics.queue(limit, () -> limit - idle.size());
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        try (ExecutorService vts = Executors.newVirtualThreadPerTaskExecutor()) {
+            // помогают свободные обработчики: каждый со своими буферами и в счёт --max-open-files
+            ChunkReader help = new ChunkReader(reader, n -> {
+                Worker h;
+                for (int i = 0; i < n && (h = idle.poll()) != null; i++) {
+                    Worker helper = h;
+                    try {
+                        vts.execute(() -> {
+                            try {
+                                chunks.help(helper.buffers);
+                            } finally {
+                                idle.add(helper);
+                            }
+                        });
+                    } catch (RejectedExecutionException e) {
+                        idle.add(helper);
+                        return;
+                    }
                 }
-            } catch (IOException ignore) {
+            });
+            chunks = help;
+            long t = System.nanoTime();
+            TreeWalker.Sink sink = batch -> {
+                Worker w = idle.take();
+                if (failure.get() != null) {
+                    idle.add(w);
+                    throw workerFailed(failure.get());
+                }
+                vts.execute(() -> {
+                    try {
+                        processBatch(batch, roots, reader, cache, dirs, w);
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        idle.add(w);
+                    }
+                });
+            };
+            for (ScanRoot r : roots) newWalker(r).walk(sink);
+            mark(ScanMetrics.Phase.walk, t);
+            // все обработчики вернулись — пачек и помощников в работе нет, новых помощников никто не позовёт
+            for (int i = 0; i < limit; i++) idle.take();
+            if (dupes != null && failure.get() == null) rehash(dupes, reader, vts, workers, roots);
+        } finally {
+            chunks = null;
+        }
+        if (failure.get() != null) throw workerFailed(failure.get());
+        return workers;
+    }
+
+    // пачка всегда из одного каталога (см. TreeWalker), узел дерева ищется один раз на пачку
+    private void processBatch(Path[] batch, List<ScanRoot> roots, ContentReader reader, StatsCache cache, DirTree dirs, Worker w) {
+        w.dir = dirs != null ? dirs.idOf(batch[0].getParent()) : 0;
+        ScanRoot scanRoot = rootOf(roots, batch[0]);
+        Path root = scanRoot.path;
+        w.prefix = scanRoot.prefix;
+        if (w.latency == null) {
+            for (Path f : batch) processFile(f, root, reader, cache, w);
+        } else {
+            for (Path f : batch) {
+                long t = System.nanoTime();
+                processFile(f, root, reader, cache, w);
+                w.latency.record(System.nanoTime() - t);
             }
-            return new GitIgnore(rs);
         }
+    }
 
-        boolean ignored(Path relativePath) {
-            String unix = relativePath.toString().replace('\\', '/');
-            boolean isDir = false;
-            boolean ignored = false;
-            for (Rule r : rules) {
-                if (r.dirOnly && !isDir) {}
-                if (r.pattern.matcher(unix).matches()) {
-                    ignored = !r.negated;
-                }
+    void processFile(Path file, Path root, ContentReader reader, StatsCache cache, Worker w) {
+        if (sampler != null && sampler.expired()) return;
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+            long bytes = attrs.size();
+            String rel = cache != null ? (w.prefix.isEmpty() ? relOf(root, file) : w.prefix + relOf(root, file)) : null;
+            StatsCache.Entry entry = cache != null ? cache.lookup(rel, attrs) : null;
+            // запись без хэша (кэш без --dedupe) не годится: файл всё равно придётся прочитать
+            if (entry != null && w.dupes != null && entry.digest == null) entry = null;
+            StatsAccumulator acc = w.acc;
+            if (w.top != null) w.top.offer(bytes, file);
+            if (entry != null) {
+                if (metrics != null) metrics.cacheHits.increment();
+                count(w, file, acc.intern(entry.ext), bytes, entry.binary, entry.totalLines, entry.nonEmptyLines, entry.commentLines);
+                if (w.dupes != null && bytes > 0) w.dupes.add(file, entry.ext, bytes, entry.digest);
+                return;
             }
-            return ignored;
-        }
-
-        private static Pattern toRegex(String gitPat) {
-            boolean anchored = gitPat.startsWith("/");
-            String p = anchored ? gitPat.substring(1) : gitPat;
-            StringBuilder sb = new StringBuilder();
-            if (!anchored) sb.append("(.*/)?");
-            int i = 0;
-            while (i < p.length()) {
-                char c = p.charAt(i);
-                if (c == '*') {
-                    if (i + 1 < p.length() && p.charAt(i + 1) == '*') {
-                        sb.append(".*");
-                        i += 2;
-                    } else {
-                        sb.append("[^/]*");
-                        i++;
-                    }
-                } else if (c == '?') {
-                    sb.append("[^/]");
-                    i++;
-                } else if (c == '.') {
-                    sb.append("\\.");
-                    i++;
-                } else if (c == '/') {
-                    sb.append("/");
-                    i++;
+            int extId = acc.extIdOf(file.getFileName().toString());
+            String ext = acc.extName(extId);
+            LineScanner scanner = w.scanner;
+            ContentHash.Digest digest = null;
+            boolean binary = false;
+            long totalLines, nonEmptyLines = 0, commentLines = 0;
+            if (linesOnly && w.tee == null && bytes >= PARALLEL_THRESHOLD) {
+                ChunkReader parts = chunks != null ? chunks : new ChunkReader(reader, null);
+                totalLines = parts.lines(file, bytes, w.buffers);
+            } else {
+                ContentReader.ByteSink sink;
+                if (linesOnly) {
+                    w.counter.reset();
+                    sink = w.counter;
                 } else {
-                    if ("+()^$|[]{}".indexOf(c) >= 0) sb.append('\\');
-                    sb.append(c);
-                    i++;
+                    scanner.reset(languages.dialectOf(ext));
+                    sink = scanner;
                 }
+                if (w.tee != null) {
+                    w.tee.reset(sink);
+                    reader.read(file, bytes, w.buffers, w.tee);
+                    digest = w.tee.finish(bytes);
+                    if (bytes > 0) w.dupes.add(file, ext, bytes, digest);
+                } else {
+                    reader.read(file, bytes, w.buffers, sink);
+                }
+                if (linesOnly) {
+                    totalLines = w.counter.lines();
+                } else {
+                    scanner.finish();
+                    binary = scanner.binary();
+                    totalLines = scanner.totalLines();
+                    nonEmptyLines = scanner.nonEmptyLines();
+                    commentLines = scanner.commentLines();
+                }
+            }
+            count(w, file, extId, bytes, binary, totalLines, nonEmptyLines, commentLines);
+            if (metrics != null) {
+                metrics.read.increment();
+                metrics.bytes.add(bytes);
+                if (binary) metrics.binary.increment();
+            }
+            if (cache != null) {
+                cache.put(rel, new StatsCache.Entry(bytes, StatsCache.mtimeOf(attrs), StatsCache.fileKeyOf(attrs), ext,
+                        binary, totalLines, nonEmptyLines, commentLines, digest));
             }
-            String regex = "^" + sb + "(/.*)?$";
-            return Pattern.compile(regex);
+        } catch (Exception e) {
+            err.println("Не удалось обработать файл: " + root.relativize(file) + " -> " + e.getMessage());
+            if (metrics != null) metrics.fail(root.relativize(file).toString(), String.valueOf(e.getMessage()));
         }
+    }
 
-        static class Rule {
-            final Pattern pattern;
-            final boolean negated;
-            final boolean dirOnly;
+    private void count(Worker w, Path file, int extId, long bytes, boolean binary, long totalLines, long nonEmptyLines, long commentLines) {
+        if (w.moments != null) {
+            boolean census = sampler.census(file);
+            if (binary) w.moments.add(extId, census, bytes, 0, 0, 0, true);
+            else w.moments.add(extId, census, bytes, totalLines, nonEmptyLines, commentLines, false);
+        }
+        if (binary) {
+            w.acc.addBinary(extId, bytes);
+            if (w.dirs != null) w.dirs.addBinary(GroupCounters.key(w.dir, extId), bytes);
+        } else {
+            w.acc.add(extId, bytes, totalLines, nonEmptyLines, commentLines);
+            if (w.dirs != null) w.dirs.add(GroupCounters.key(w.dir, extId), bytes, totalLines, nonEmptyLines, commentLines);
+        }
+    }
 
-            Rule(Pattern p, boolean n, boolean d) {
-                pattern = p;
-                negated = n;
-                dirOnly = d;
-            }
+    static String extOf(Path p) {
+        String name = p.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        if (dot <= 0 || dot == name.length() - 1) return StatsAccumulator.NO_EXT;
+        return name.substring(dot + 1).toLowerCase(Locale.ROOT);
+    }
+
+    private static Set<String> toLower(Set<String> in) {
+        return in.stream().map(x -> x.startsWith(".") ? x.substring(1) : x).map(x -> x.toLowerCase(Locale.ROOT)).collect(Collectors.toSet());
+    }
+
+    /**
+     * Состояние одного обработчика файлов: накопитель, сканер строк и буферы чтения,
+     * а при разбивке по каталогам, --top, --dedupe и --sample — их счётчики. В каждый момент используется только одним потоком.
+     */
+    static final class Worker {
+        final StatsAccumulator acc = new StatsAccumulator();
+        final LineScanner scanner = new LineScanner();
+        final LineCounter counter = new LineCounter();
+        final ContentReader.Buffers buffers = new ContentReader.Buffers();
+        final GroupCounters dirs;
+        final TopFiles top;
+        // время обработки файлов, если включены метрики
+        final ScanMetrics.Latency latency;
+        // при --dedupe: общий поиск дубликатов и хэш читаемого файла
+        final Dedupe dupes;
+        final ContentHash.Tee tee;
+        // при --sample/--time-budget: суммы для оценки итогов и доверительных интервалов
+        final Sampler.Moments moments;
+        // узел DirTree каталога текущей пачки и префикс ключей кэша для её корня
+        int dir;
+        String prefix = "";
+
+        Worker() {
+            this(null, null, null, null, null);
+        }
+
+        Worker(GroupCounters dirs, TopFiles top, ScanMetrics.Latency latency, Dedupe dupes, Sampler.Moments moments) {
+            this.dirs = dirs;
+            this.moments = moments;
+            this.top = top;
+            this.latency = latency;
+            this.dupes = dupes;
+            this.tee = dupes != null ? new ContentHash.Tee(new ContentHash()) : null;
+        }
+    }
+
+    /**
+     * Каталог обхода. При нескольких каталогах пути файлов в кэше, --top и --shard начинаются с его имени.
+     */
+    static final class ScanRoot {
+        final Path path;
+        // каталог, как он указан; метка в отчёте — только при нескольких каталогах
+        final String name;
+        final String label;
+        final String prefix;
+
+        ScanRoot(Path path, String name, boolean several) {
+            this.path = path;
+            this.name = name;
+            this.label = several ? name : DirTree.ROOT_NAME;
+            this.prefix = several ? name + "/" : "";
+        }
+
+        String key(Path file) {
+            return prefix + relOf(path, file);
         }
     }
+
+    static class Stats {
+        LongAdder files = new LongAdder();
+        LongAdder bytes = new LongAdder();
+        LongAdder totalLines = new LongAdder();
+        LongAdder nonEmptyLines = new LongAdder();
+        LongAdder commentLines = new LongAdder();
+        LongAdder binaryFiles = new LongAdder();
+        LongAdder dupFiles = new LongAdder();
+        LongAdder dupBytes = new LongAdder();
+    }
 }
@@ -0,0 +1,145 @@
+package org.example.filestats;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Клиент сервера {@code filestats serve} для {@code --connect}: пересылает аргументы и текущий каталог через
+ * Unix-сокет и печатает ответ по мере поступления. Сам запрос разбирает и выполняет сервер.
+ * <p>
+ * Протокол: запрос — magic, каталог клиента, кодировка его stdout, аргументы ({@code writeUTF});
+ * ответ — кадры (тип, длина, байты) для stdout и stderr и завершающий кадр с кодом возврата.
+ */
+final class FileStatsClient {
+
+    static final int MAGIC = 0x46535351; // "FSSQ"
+    static final int EXIT = 0, STDOUT = 1, STDERR = 2;
+
+    private static final String OPTION = "--connect";
+
+    private FileStatsClient() {
+    }
+
+    /**
+     * Сокет по умолчанию: в {@code $XDG_RUNTIME_DIR}, а без него — в личном каталоге пользователя
+     * {@code <java.io.tmpdir>/filestats-<пользователь>}, который сервер создаёт с правами rwx------.
+     */
+    static Path defaultSocket() {
+        String runtime = System.getenv("XDG_RUNTIME_DIR");
+        if (runtime != null && !runtime.isEmpty() && Path.of(runtime).isAbsolute()) return Path.of(runtime, "filestats.sock");
+        return Path.of(System.getProperty("java.io.tmpdir"), "filestats-" + System.getProperty("user.name"), "filestats.sock");
+    }
+
+    /**
+     * Проверяет, что каталог сокета и сам сокет, если он есть, принадлежат текущему пользователю и закрыты
+     * на запись для группы и остальных: иначе сокет мог подложить другой пользователь и получать запросы
+     * или подделывать ответы. На файловых системах без POSIX-прав не проверяет.
+     *
+     * @throws IOException если каталог или сокет чужой или доступен на запись другим
+     */
+    static void checkPrivate(Path socket) throws IOException {
+        UserPrincipal me = socket.getFileSystem().getUserPrincipalLookupService().lookupPrincipalByName(System.getProperty("user.name"));
+        checkOwned(socket.toAbsolutePath().getParent(), me);
+        if (Files.exists(socket, LinkOption.NOFOLLOW_LINKS)) checkOwned(socket, me);
+    }
+
+    private static void checkOwned(Path p, UserPrincipal me) throws IOException {
+        PosixFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(p, PosixFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (UnsupportedOperationException e) {
+            return;
+        }
+        if (!attrs.owner().equals(me)) {
+            throw new IOException("небезопасный сокет: " + p + " принадлежит " + attrs.owner().getName());
+        }
+        Set<PosixFilePermission> perms = attrs.permissions();
+        if (perms.contains(PosixFilePermission.GROUP_WRITE) || perms.contains(PosixFilePermission.OTHERS_WRITE)) {
+            throw new IOException("небезопасный сокет: " + p + " доступен на запись другим пользователям");
+        }
+    }
+
+    /**
+     * Значение {@code --connect} без разбора picocli, чтобы клиент не строил модель всех опций: пустое —
+     * сокет по умолчанию, {@code null} — опции нет или это подкоманда {@code serve}. Разбор кончается на
+     * {@code --}, сокет берётся только как {@code --connect=<socket>}, как и в {@link FileStatsCli}.
+     * Аргументы из {@code @файла} здесь не видны: такой запрос уходит на сервер после разбора picocli.
+     */
+    static String connectOption(String[] args) {
+        String value = null;
+        for (String a : args) {
+            if (a.equals("--")) break;
+            if (a.equals("serve")) return null;
+            if (a.equals(OPTION)) value = "";
+            else if (a.startsWith(OPTION + "=")) value = a.substring(OPTION.length() + 1);
+        }
+        return value;
+    }
+
+    /**
+     * Сокет по значению {@code --connect}; пустое — сокет по умолчанию.
+     */
+    static Path socket(String value) {
+        return value.isEmpty() ? defaultSocket() : Path.of(value);
+    }
+
+    static int run(Path socket, String[] args) {
+        List<String> forwarded = new ArrayList<>(args.length);
+        for (String a : args) {
+            if (!a.equals(OPTION) && !a.startsWith(OPTION + "=")) forwarded.add(a);
+        }
+        try {
+            checkPrivate(socket);
+        } catch (IOException e) {
+            System.err.println("Не удалось выполнить запрос на сервере " + socket + " -> " + e.getMessage());
+            return 1;
+        }
+        try (SocketChannel ch = SocketChannel.open(UnixDomainSocketAddress.of(socket))) {
+            DataOutputStream req = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(ch)));
+            req.writeInt(MAGIC);
+            req.writeUTF(Path.of("").toAbsolutePath().toString());
+            req.writeUTF(System.out.charset().name());
+            req.writeInt(forwarded.size());
+            for (String a : forwarded) req.writeUTF(a);
+            req.flush();
+
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(ch)));
+            byte[] buf = new byte[8192];
+            while (true) {
+                int type = in.readByte();
+                if (type == EXIT) {
+                    System.out.flush();
+                    return in.readInt();
+                }
+                PrintStream target = type == STDERR ? System.err : System.out;
+                for (int len = in.readInt(); len > 0; ) {
+                    int n = in.read(buf, 0, Math.min(len, buf.length));
+                    if (n < 0) throw new EOFException("соединение закрыто");
+                    target.write(buf, 0, n);
+                    len -= n;
+                }
+                target.flush();
+            }
+        } catch (IOException e) {
+            System.err.println("Не удалось выполнить запрос на сервере " + socket + " -> " + e.getMessage());
+            return 1;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package org.example.filestats;
+
+import picocli.CommandLine;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.Parameters;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * {@code filestats merge}: складывает частичные результаты (--emit-partial) в обычный отчёт.
+ */
+@Command(name = "merge",
+        description = "Сложить частичные результаты filestats --emit-partial (шарды, разные каталоги и машины) в один отчёт",
+        mixinStandardHelpOptions = true)
+final class FileStatsMerge implements Callable<Integer> {
+
+    @Parameters(arity = "1..*", paramLabel = "<file>", description = "Файлы частичных результатов")
+    private List<Path> parts;
+
+    @Option(names = "--output", paramLabel = "<plain|json|xml>", description = "Формат вывода (по умолчанию: plain)")
+    private FileStatsCli.Output output = FileStatsCli.Output.plain;
+
+    @Option(names = "--compact", description = "Компактный JSON/XML без отступов и переводов строк")
+    private boolean compact = false;
+
+    @Override
+    public Integer call() throws Exception {
+        List<PartialResult> read = new ArrayList<>(parts.size());
+        for (Path p : parts) {
+            try (InputStream in = Files.newInputStream(p)) {
+                read.add(PartialResult.read(in));
+            } catch (IOException e) {
+                throw new CommandLine.ParameterException(new CommandLine(this), "Не удалось прочитать частичный результат: " + p + " -> " + e.getMessage());
+            }
+        }
+        ReportWriter.Report report;
+        try {
+            report = PartialResult.merge(read, System.err);
+        } catch (IllegalArgumentException e) {
+            throw new CommandLine.ParameterException(new CommandLine(this), e.getMessage());
+        }
+        ReportWriter.write(output, compact, report, new BufferedWriter(new OutputStreamWriter(System.out, System.out.charset())));
+        return 0;
+    }
+}
@@ -0,0 +1,241 @@
+package org.example.filestats;
+
+import picocli.CommandLine;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+
+/**
+ * {@code filestats serve}: долгоживущий процесс, который выполняет запросы {@link FileStatsClient}
+ * с теми же опциями, что и обычный запуск. JVM, picocli, мапперы Jackson и описания языков уже прогреты,
+ * а кэши статистики и отчёты по корням лежат в памяти ({@link ResidentIndex}) и обновляются по событиям
+ * файловой системы, так что повторный запрос не обходит дерево. Каждый запрос — отдельный виртуальный поток.
+ */
+@Command(name = "serve",
+        description = "Запустить сервер: держит кэши статистики в памяти и выполняет запросы filestats --connect",
+        mixinStandardHelpOptions = true)
+final class FileStatsServer implements Callable<Integer>, Closeable {
+
+    private static final int MAX_ARGS = 4096;
+
+    @Option(names = "--socket", paramLabel = "<file>", description = "Unix-сокет для запросов (по умолчанию: $XDG_RUNTIME_DIR/filestats.sock или <java.io.tmpdir>/filestats-<пользователь>/filestats.sock)")
+    private Path socket = FileStatsClient.defaultSocket();
+
+    @Option(names = "--max-indexes", paramLabel = "<n>", description = "Сколько наборов каталогов держать в памяти; давно не запрошенные вытесняются (по умолчанию: 8)")
+    private int maxIndexes = ResidentIndex.DEFAULT_MAX_SLOTS;
+
+    private ResidentIndex index;
+    private volatile ServerSocketChannel server;
+
+    FileStatsServer() {
+    }
+
+    FileStatsServer(Path socket) {
+        this.socket = socket;
+    }
+
+    @Override
+    public Integer call() throws Exception {
+        bind();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close));
+        System.err.println("Сервер принимает запросы: " + socket);
+        serve();
+        return 0;
+    }
+
+    void bind() throws IOException {
+        privateDir();
+        if (Files.exists(socket)) {
+            if (alive(socket)) throw new IllegalStateException("На сокете уже работает сервер: " + socket);
+            // остался от завершившегося аварийно сервера
+            Files.delete(socket);
+        }
+        index = new ResidentIndex(maxIndexes);
+        ServerSocketChannel ch = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        try {
+            bindPrivately(ch);
+        } catch (IOException | RuntimeException e) {
+            ch.close();
+            throw e;
+        }
+        server = ch;
+    }
+
+    /**
+     * Создаёт каталог сокета по умолчанию с правами rwx------ и проверяет, что каталог и оставшийся сокет —
+     * свои и закрыты для записи другими ({@link FileStatsClient#checkPrivate}).
+     */
+    private void privateDir() throws IOException {
+        Path parent = socket.toAbsolutePath().getParent();
+        if (socket.equals(FileStatsClient.defaultSocket()) && !Files.exists(parent)) {
+            try {
+                Files.createDirectories(parent, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+            } catch (UnsupportedOperationException e) {
+                Files.createDirectories(parent);
+            }
+        }
+        try {
+            FileStatsClient.checkPrivate(socket);
+        } catch (IOException e) {
+            throw new IllegalStateException("Сокет нельзя открыть: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Создаёт сокет в каталоге rwx------ рядом с {@link #socket} и переносит его на место, когда права
+     * уже rw-------: между bind и chmod к сокету никто, кроме владельца, не успеет подключиться.
+     */
+    private void bindPrivately(ServerSocketChannel ch) throws IOException {
+        Path parent = socket.toAbsolutePath().getParent();
+        Path dir;
+        try {
+            dir = Files.createTempDirectory(parent, ".fs", PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+        } catch (UnsupportedOperationException e) {
+            ch.bind(UnixDomainSocketAddress.of(socket));
+            return;
+        }
+        Path tmp = dir.resolve("s");
+        try {
+            ch.bind(UnixDomainSocketAddress.of(tmp));
+            Files.setPosixFilePermissions(tmp, PosixFilePermissions.fromString("rw-------"));
+            Files.move(tmp, socket, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    /**
+     * Принимает запросы до {@link #close()}.
+     */
+    void serve() throws IOException {
+        while (true) {
+            ServerSocketChannel s = server;
+            if (s == null) return;
+            SocketChannel ch;
+            try {
+                ch = s.accept();
+            } catch (ClosedChannelException e) {
+                return;
+            }
+            Thread.ofVirtual().name("filestats-query").start(() -> handle(ch));
+        }
+    }
+
+    @Override
+    public void close() {
+        ServerSocketChannel ch = server;
+        if (ch == null) return;
+        server = null;
+        index.close();
+        try {
+            ch.close();
+            Files.deleteIfExists(socket);
+        } catch (IOException ignore) {
+        }
+    }
+
+    private static boolean alive(Path socket) {
+        try {
+            SocketChannel.open(UnixDomainSocketAddress.of(socket)).close();
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private void handle(SocketChannel ch) {
+        try (ch) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(ch)));
+            if (in.readInt() != FileStatsClient.MAGIC) return;
+            Path workDir = Path.of(in.readUTF());
+            Charset charset = charsetOf(in.readUTF());
+            int n = in.readInt();
+            if (n < 0 || n > MAX_ARGS) return;
+            String[] args = new String[n];
+            for (int i = 0; i < n; i++) args[i] = in.readUTF();
+
+            DataOutputStream resp = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(ch)));
+            PrintStream out = new PrintStream(new BufferedOutputStream(new Frames(resp, FileStatsClient.STDOUT), 8192), false, charset);
+            PrintStream err = new PrintStream(new BufferedOutputStream(new Frames(resp, FileStatsClient.STDERR), 8192), true, charset);
+            CommandLine cmd = new CommandLine(new FileStatsCli(workDir, out, err, index));
+            // на сервере — только запросы статистики: serve и merge выполнялись бы в процессе сервера
+            for (String sub : new ArrayList<>(cmd.getSubcommands().keySet())) cmd.getCommandSpec().removeSubcommand(sub);
+            cmd.setOut(new PrintWriter(new OutputStreamWriter(out, charset), true));
+            cmd.setErr(new PrintWriter(new OutputStreamWriter(err, charset), true));
+            int code = cmd.execute(args);
+            cmd.getOut().flush();
+            cmd.getErr().flush();
+            out.flush();
+            err.flush();
+            synchronized (resp) {
+                resp.writeByte(FileStatsClient.EXIT);
+                resp.writeInt(code);
+                resp.flush();
+            }
+        } catch (IOException e) {
+            System.err.println("Ошибка при обработке запроса: " + e.getMessage());
+        }
+    }
+
+    private static Charset charsetOf(String name) {
+        try {
+            return Charset.forName(name);
+        } catch (IllegalArgumentException e) {
+            return StandardCharsets.UTF_8;
+        }
+    }
+
+    /**
+     * Поток в кадры одного типа; stdout и stderr пишут в сокет попеременно.
+     */
+    private static final class Frames extends OutputStream {
+        private final DataOutputStream out;
+        private final int type;
+
+        Frames(DataOutputStream out, int type) {
+            this.out = out;
+            this.type = type;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return;
+            synchronized (out) {
+                out.writeByte(type);
+                out.writeInt(len);
+                out.write(b, off, len);
+                out.flush();
+            }
+        }
+    }
+}
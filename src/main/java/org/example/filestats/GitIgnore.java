@@ -0,0 +1,339 @@
+package org.example.filestats;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Правила .gitignore для одного каталога вместе с цепочкой родительских каталогов.
+ * <p>
+ * Корневой узел содержит {@code .git/info/exclude} и корневой {@code .gitignore}, каждый вложенный каталог
+ * со своим {@code .gitignore} добавляет узел поверх родительского. Правила узла проверяются от последнего к первому,
+ * более глубокий узел важнее родительского. Пути передаются сегментами относительно корня обхода,
+ * что позволяет отсекать игнорируемые каталоги ещё до спуска в них.
+ * <p>
+ * Правила каждого файла компилируются: шаблоны по имени без масок — в хеш-таблицу, {@code *.ext} — в таблицу
+ * суффиксов, шаблоны со слешем — в дерево по литеральным сегментам пути; общий перебор остаётся только для масок.
+ */
+final class GitIgnore {
+
+    private static final int UNDECIDED = 0, IGNORED = 1, INCLUDED = 2;
+
+    private final GitIgnore parent;
+    private final int depth;
+    private final RuleSet rules;
+
+    private GitIgnore(GitIgnore parent, int depth, RuleSet rules) {
+        this.parent = parent;
+        this.depth = depth;
+        this.rules = rules;
+    }
+
+    static GitIgnore load(Path root, PrintStream err) {
+        GitIgnore exclude = new GitIgnore(null, 0, RuleSet.parse(readLines(root.resolve(".git").resolve("info").resolve("exclude"), err)));
+        return new GitIgnore(exclude, 0, RuleSet.parse(readLines(root.resolve(".gitignore"), err)));
+    }
+
+    /**
+     * Узел для подкаталога {@code dir}, лежащего на глубине {@code depth} от корня.
+     * Если в каталоге нет своего .gitignore, возвращается текущий узел. Узлы переживают запрос на сервере,
+     * поэтому поток для сообщений о нечитаемом .gitignore передаётся при каждом вызове, а не хранится.
+     */
+    GitIgnore enter(Path dir, int depth, PrintStream err) {
+        List<String> lines = readLines(dir.resolve(".gitignore"), err);
+        if (lines.isEmpty()) return this;
+        RuleSet rs = RuleSet.parse(lines);
+        return rs.isEmpty() ? this : new GitIgnore(this, depth, rs);
+    }
+
+    /**
+     * @param segs  сегменты пути относительно корня, последний — имя проверяемой записи
+     * @param len   число используемых сегментов
+     * @param isDir является ли запись каталогом
+     */
+    boolean ignored(String[] segs, int len, boolean isDir) {
+        for (GitIgnore g = this; g != null; g = g.parent) {
+            int r = g.rules.match(segs, g.depth, len, isDir);
+            if (r != UNDECIDED) return r == IGNORED;
+        }
+        return false;
+    }
+
+    /**
+     * Проверка пути относительно корня с учётом только уже загруженных правил: путь игнорируется,
+     * если игнорируется он сам или любой из его родительских каталогов.
+     */
+    boolean ignored(Path relativePath) {
+        String[] segs = relativePath.toString().replace('\\', '/').split("/");
+        for (int i = 1; i <= segs.length; i++) {
+            if (ignored(segs, i, i < segs.length)) return true;
+        }
+        return false;
+    }
+
+    private static List<String> readLines(Path file, PrintStream err) {
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader br = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = br.readLine()) != null) lines.add(line);
+        } catch (NoSuchFileException ignore) {
+        } catch (IOException e) {
+            err.println("Не удалось прочитать: " + file + " -> " + e.getMessage());
+        }
+        return lines;
+    }
+
+    static final class Rule {
+        final int id;
+        final boolean negated;
+        final boolean dirOnly;
+        final String[] segs;
+        final int literalPrefix;
+
+        Rule(int id, boolean negated, boolean dirOnly, String[] segs, int literalPrefix) {
+            this.id = id;
+            this.negated = negated;
+            this.dirOnly = dirOnly;
+            this.segs = segs;
+            this.literalPrefix = literalPrefix;
+        }
+    }
+
+    static final class RuleSet {
+        private final List<Rule> all = new ArrayList<>();
+        // правила без слеша: сравниваются с именем записи на любой глубине
+        private final Map<String, List<Rule>> byName = new HashMap<>();
+        private final Map<String, List<Rule>> bySuffix = new HashMap<>();
+        private int[] suffixLengths = new int[0];
+        private final List<Rule> nameGlobs = new ArrayList<>();
+        // правила со слешем: от каталога .gitignore, в дереве по литеральным сегментам
+        private final Node anchored = new Node();
+
+        boolean isEmpty() {
+            return all.isEmpty();
+        }
+
+        static RuleSet parse(List<String> lines) {
+            RuleSet rs = new RuleSet();
+            TreeSet<Integer> lengths = new TreeSet<>();
+            for (String line : lines) {
+                String pat = stripTrailingSpaces(line);
+                if (pat.isEmpty() || pat.startsWith("#")) continue;
+                boolean neg = pat.startsWith("!");
+                if (neg) pat = pat.substring(1);
+                else if (pat.startsWith("\\!") || pat.startsWith("\\#")) pat = pat.substring(1);
+                boolean dirOnly = pat.endsWith("/");
+                while (pat.endsWith("/")) pat = pat.substring(0, pat.length() - 1);
+                if (pat.isEmpty()) continue;
+
+                boolean hasSlash = pat.indexOf('/') >= 0;
+                if (pat.startsWith("**/") && pat.indexOf('/', 3) < 0) {
+                    pat = pat.substring(3);
+                    hasSlash = false;
+                }
+                int id = rs.all.size();
+                if (!hasSlash) {
+                    Rule r = new Rule(id, neg, dirOnly, new String[]{pat}, 0);
+                    rs.all.add(r);
+                    if (!hasWildcard(pat)) {
+                        rs.byName.computeIfAbsent(unescape(pat), k -> new ArrayList<>()).add(r);
+                    } else if (pat.charAt(0) == '*' && !hasWildcard(pat.substring(1))) {
+                        String suffix = unescape(pat.substring(1));
+                        rs.bySuffix.computeIfAbsent(suffix, k -> new ArrayList<>()).add(r);
+                        lengths.add(suffix.length());
+                    } else {
+                        rs.nameGlobs.add(r);
+                    }
+                } else {
+                    if (pat.startsWith("/")) pat = pat.substring(1);
+                    String[] segs = pat.split("/+");
+                    int lit = 0;
+                    while (lit < segs.length && !hasWildcard(segs[lit])) {
+                        segs[lit] = unescape(segs[lit]);
+                        lit++;
+                    }
+                    Rule r = new Rule(id, neg, dirOnly, segs, lit);
+                    rs.all.add(r);
+                    Node n = rs.anchored;
+                    for (int i = 0; i < lit; i++) n = n.children.computeIfAbsent(segs[i], k -> new Node());
+                    n.rules.add(r);
+                }
+            }
+            rs.suffixLengths = lengths.stream().mapToInt(Integer::intValue).toArray();
+            return rs;
+        }
+
+        int match(String[] segs, int from, int len, boolean isDir) {
+            Rule best = null;
+            String name = segs[len - 1];
+            best = pick(best, byName.get(name), isDir);
+            for (int l : suffixLengths) {
+                if (l > name.length()) break;
+                best = pick(best, bySuffix.get(name.substring(name.length() - l)), isDir);
+            }
+            for (Rule r : nameGlobs) {
+                if (applies(r, best, isDir) && globMatch(r.segs[0], 0, name, 0)) best = r;
+            }
+            Node n = anchored;
+            for (int i = from; n != null; i++) {
+                for (Rule r : n.rules) {
+                    if (applies(r, best, isDir) && segsMatch(r.segs, r.literalPrefix, segs, i, len)) best = r;
+                }
+                n = i < len ? n.children.get(segs[i]) : null;
+            }
+            if (best == null) return UNDECIDED;
+            return best.negated ? INCLUDED : IGNORED;
+        }
+
+        private static Rule pick(Rule best, List<Rule> candidates, boolean isDir) {
+            if (candidates == null) return best;
+            for (Rule r : candidates) {
+                if (applies(r, best, isDir)) best = r;
+            }
+            return best;
+        }
+
+        private static boolean applies(Rule r, Rule best, boolean isDir) {
+            return (best == null || r.id > best.id) && (!r.dirOnly || isDir);
+        }
+    }
+
+    static final class Node {
+        final Map<String, Node> children = new HashMap<>();
+        final List<Rule> rules = new ArrayList<>();
+    }
+
+    static boolean segsMatch(String[] pat, int pi, String[] segs, int si, int len) {
+        while (pi < pat.length) {
+            if (pat[pi].equals("**")) {
+                if (pi == pat.length - 1) return si < len;
+                for (int k = si; k <= len; k++) {
+                    if (segsMatch(pat, pi + 1, segs, k, len)) return true;
+                }
+                return false;
+            }
+            if (si == len || !globMatch(pat[pi], 0, segs[si], 0)) return false;
+            pi++;
+            si++;
+        }
+        return si == len;
+    }
+
+    /**
+     * Маска в пределах одного сегмента: {@code *}, {@code ?}, {@code [...]}, экранирование через {@code \}.
+     */
+    static boolean globMatch(String p, int pi, String s, int si) {
+        int starP = -1, starS = -1;
+        while (si < s.length()) {
+            if (pi < p.length()) {
+                char c = p.charAt(pi);
+                if (c == '*') {
+                    while (pi < p.length() && p.charAt(pi) == '*') pi++;
+                    if (pi == p.length()) return true;
+                    starP = pi;
+                    starS = si;
+                    continue;
+                }
+                if (c == '?') {
+                    pi++;
+                    si++;
+                    continue;
+                }
+                if (c == '[') {
+                    int close = classEnd(p, pi);
+                    if (close > 0) {
+                        if (classMatch(p, pi + 1, close, s.charAt(si))) {
+                            pi = close + 1;
+                            si++;
+                            continue;
+                        }
+                    } else if (s.charAt(si) == '[') {
+                        pi++;
+                        si++;
+                        continue;
+                    }
+                } else {
+                    int step = 1;
+                    if (c == '\\' && pi + 1 < p.length()) {
+                        c = p.charAt(pi + 1);
+                        step = 2;
+                    }
+                    if (c == s.charAt(si)) {
+                        pi += step;
+                        si++;
+                        continue;
+                    }
+                }
+            }
+            if (starP < 0) return false;
+            pi = starP;
+            si = ++starS;
+        }
+        while (pi < p.length() && p.charAt(pi) == '*') pi++;
+        return pi == p.length();
+    }
+
+    private static int classEnd(String p, int open) {
+        int i = open + 1;
+        if (i < p.length() && (p.charAt(i) == '!' || p.charAt(i) == '^')) i++;
+        if (i < p.length() && p.charAt(i) == ']') i++;
+        for (; i < p.length(); i++) {
+            if (p.charAt(i) == ']') return i;
+        }
+        return -1;
+    }
+
+    private static boolean classMatch(String p, int from, int to, char ch) {
+        boolean negate = p.charAt(from) == '!' || p.charAt(from) == '^';
+        if (negate) from++;
+        boolean found = false;
+        for (int i = from; i < to; i++) {
+            char lo = p.charAt(i);
+            if (i + 2 < to && p.charAt(i + 1) == '-') {
+                if (ch >= lo && ch <= p.charAt(i + 2)) found = true;
+                i += 2;
+            } else if (ch == lo) {
+                found = true;
+            }
+        }
+        return found != negate;
+    }
+
+    private static boolean hasWildcard(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '*' || c == '?' || c == '[') return true;
+            if (c == '\\') i++;
+        }
+        return false;
+    }
+
+    private static String unescape(String s) {
+        if (s.indexOf('\\') < 0) return s;
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\\' && i + 1 < s.length()) c = s.charAt(++i);
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    private static String stripTrailingSpaces(String line) {
+        int end = line.length();
+        while (end > 0 && line.charAt(end - 1) == ' ') {
+            if (end > 1 && line.charAt(end - 2) == '\\') break;
+            end--;
+        }
+        return line.substring(0, end);
+    }
+}
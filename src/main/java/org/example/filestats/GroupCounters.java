@@ -0,0 +1,128 @@
+package org.example.filestats;
+
+import java.util.Arrays;
+
+import static org.example.filestats.StatsAccumulator.BINARY;
+import static org.example.filestats.StatsAccumulator.BYTES;
+import static org.example.filestats.StatsAccumulator.COMMENT;
+import static org.example.filestats.StatsAccumulator.FILES;
+import static org.example.filestats.StatsAccumulator.LINES;
+import static org.example.filestats.StatsAccumulator.NON_EMPTY;
+import static org.example.filestats.StatsAccumulator.WIDTH;
+
+/**
+ * Счётчики по составному ключу из двух int (каталог и расширение), упакованному в {@code long}.
+ * Записи нумеруются в порядке добавления, счётчики лежат в плоском {@code long[]} по {@link StatsAccumulator#WIDTH}
+ * значений на запись, как в {@link StatsAccumulator}. Не потокобезопасен.
+ */
+final class GroupCounters {
+
+    private long[] keys = new long[16];
+    private long[] counters = new long[16 * WIDTH];
+    private int size;
+
+    // открытая адресация: слот -> номер записи + 1, 0 — пусто
+    private int[] table = new int[32];
+
+    static long key(int hi, int lo) {
+        return ((long) hi << 32) | (lo & 0xFFFFFFFFL);
+    }
+
+    static int hi(long key) {
+        return (int) (key >>> 32);
+    }
+
+    static int lo(long key) {
+        return (int) key;
+    }
+
+    void add(long key, long bytes, long totalLines, long nonEmptyLines, long commentLines) {
+        int base = entryOf(key) * WIDTH;
+        counters[base + FILES]++;
+        counters[base + BYTES] += bytes;
+        counters[base + LINES] += totalLines;
+        counters[base + NON_EMPTY] += nonEmptyLines;
+        counters[base + COMMENT] += commentLines;
+    }
+
+    void addBinary(long key, long bytes) {
+        int base = entryOf(key) * WIDTH;
+        counters[base + FILES]++;
+        counters[base + BYTES] += bytes;
+        counters[base + BINARY]++;
+    }
+
+    /**
+     * Номер записи для ключа; отсутствующая запись создаётся с нулевыми счётчиками.
+     */
+    int entryOf(long key) {
+        int mask = table.length - 1;
+        for (int slot = mix(key) & mask; ; slot = (slot + 1) & mask) {
+            int e = table[slot] - 1;
+            if (e < 0) return insert(key, slot);
+            if (keys[e] == key) return e;
+        }
+    }
+
+    /**
+     * Прибавляет к записи {@code to} счётчики записи {@code from}.
+     */
+    void addEntry(int to, int from) {
+        int dst = to * WIDTH, src = from * WIDTH;
+        for (int i = 0; i < WIDTH; i++) counters[dst + i] += counters[src + i];
+    }
+
+    /**
+     * Прибавляет к записи {@code to} счётчики {@code src[base..base+WIDTH)}.
+     */
+    void addCounters(int to, long[] src, int base) {
+        int dst = to * WIDTH;
+        for (int i = 0; i < WIDTH; i++) counters[dst + i] += src[base + i];
+    }
+
+    int size() {
+        return size;
+    }
+
+    long keyAt(int entry) {
+        return keys[entry];
+    }
+
+    long counter(int entry, int field) {
+        return counters[entry * WIDTH + field];
+    }
+
+    /**
+     * Плоский массив счётчиков; после добавления новых записей может быть заменён.
+     */
+    long[] counters() {
+        return counters;
+    }
+
+    private int insert(long key, int slot) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            counters = Arrays.copyOf(counters, size * 2 * WIDTH);
+        }
+        int e = size++;
+        keys[e] = key;
+        table[slot] = e + 1;
+        if (size * 2 > table.length) rehash();
+        return e;
+    }
+
+    private void rehash() {
+        table = new int[table.length * 2];
+        int mask = table.length - 1;
+        for (int e = 0; e < size; e++) {
+            int slot = mix(keys[e]) & mask;
+            while (table[slot] != 0) slot = (slot + 1) & mask;
+            table[slot] = e + 1;
+        }
+    }
+
+    private static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,156 @@
+package org.example.filestats;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Описания языков: каким {@link Dialect} разбирать файлы с данным расширением.
+ * Встроенные описания лежат в ресурсе {@code languages.conf} (там же описан формат),
+ * файл из {@code --languages} дополняет их и переопределяет по расширениям.
+ * Автоматы компилируются один раз при загрузке.
+ */
+final class Languages {
+
+    private static final String BUILTIN = "languages.conf";
+
+    private static Languages builtin;
+
+    private final Map<String, Dialect> byExt;
+    private final long fingerprint;
+
+    private Languages(Map<String, Dialect> byExt, long fingerprint) {
+        this.byExt = byExt;
+        this.fingerprint = fingerprint;
+    }
+
+    static synchronized Languages builtin() {
+        if (builtin == null) builtin = load(null);
+        return builtin;
+    }
+
+    /**
+     * @param extra файл с дополнительными описаниями или {@code null}
+     */
+    static Languages load(Path extra) {
+        String text;
+        try (InputStream in = Languages.class.getResourceAsStream(BUILTIN)) {
+            if (in == null) throw new IllegalStateException("нет ресурса " + BUILTIN);
+            text = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new IllegalStateException("не удалось прочитать " + BUILTIN, e);
+        }
+        Map<String, Dialect> byExt = new HashMap<>();
+        CRC32 crc = new CRC32();
+        parse(text, BUILTIN, byExt);
+        crc.update(text.getBytes(StandardCharsets.UTF_8));
+        if (extra != null) {
+            String extraText;
+            try {
+                extraText = Files.readString(extra);
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Не удалось прочитать описания языков: " + extra + " -> " + e.getMessage());
+            }
+            parse(extraText, extra.toString(), byExt);
+            crc.update(0);
+            crc.update(extraText.getBytes(StandardCharsets.UTF_8));
+        }
+        return new Languages(byExt, crc.getValue());
+    }
+
+    static Languages parse(String text) {
+        Map<String, Dialect> byExt = new HashMap<>();
+        parse(text, "<text>", byExt);
+        CRC32 crc = new CRC32();
+        crc.update(text.getBytes(StandardCharsets.UTF_8));
+        return new Languages(byExt, crc.getValue());
+    }
+
+    Dialect dialectOf(String ext) {
+        return byExt.getOrDefault(ext, Dialect.PLAIN);
+    }
+
+    /**
+     * Контрольная сумма описаний: при её смене посчитанные раньше комментарии недействительны.
+     */
+    long fingerprint() {
+        return fingerprint;
+    }
+
+    private static void parse(String text, String source, Map<String, Dialect> byExt) {
+        Dialect.Builder builder = null;
+        String[] exts = new String[0];
+        int lineNo = 0;
+        for (String raw : text.split("\r?\n|\r", -1)) {
+            lineNo++;
+            String line = raw.strip();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            try {
+                if (line.startsWith("[") && line.endsWith("]")) {
+                    define(builder, exts, byExt);
+                    builder = new Dialect.Builder(line.substring(1, line.length() - 1).strip());
+                    exts = new String[0];
+                    continue;
+                }
+                if (builder == null) throw new IllegalArgumentException("описание вне секции [язык]");
+                String[] w = line.split("\\s+");
+                switch (w[0]) {
+                    case "ext" -> {
+                        exts = new String[w.length - 1];
+                        for (int i = 1; i < w.length; i++) {
+                            String e = w[i].startsWith(".") ? w[i].substring(1) : w[i];
+                            exts[i - 1] = e.toLowerCase(Locale.ROOT);
+                        }
+                    }
+                    case "line" -> {
+                        arity(w, 2);
+                        builder.line(w[1]);
+                    }
+                    case "block" -> {
+                        arity(w, 3);
+                        builder.block(w[1], w[2]);
+                    }
+                    case "string" -> {
+                        if (w.length < 3) throw new IllegalArgumentException("ожидается: string <начало> <конец> [escape <символ>] [multiline]");
+                        int escape = -1;
+                        boolean multiline = false;
+                        for (int i = 3; i < w.length; i++) {
+                            if (w[i].equals("multiline")) {
+                                multiline = true;
+                            } else if (w[i].equals("escape") && i + 1 < w.length && w[i + 1].length() == 1) {
+                                escape = w[++i].charAt(0);
+                            } else {
+                                throw new IllegalArgumentException("непонятный параметр строки: " + w[i]);
+                            }
+                        }
+                        builder.string(w[1], w[2], escape, multiline);
+                    }
+                    default -> throw new IllegalArgumentException("неизвестная директива: " + w[0]);
+                }
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Ошибка в описании языков, " + source + ":" + lineNo + ": " + e.getMessage());
+            }
+        }
+        try {
+            define(builder, exts, byExt);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Ошибка в описании языков, " + source + ": " + e.getMessage());
+        }
+    }
+
+    private static void define(Dialect.Builder builder, String[] exts, Map<String, Dialect> byExt) {
+        if (builder == null) return;
+        Dialect d = builder.compile();
+        for (String e : exts) byExt.put(e, d);
+    }
+
+    private static void arity(String[] w, int n) {
+        if (w.length != n) throw new IllegalArgumentException("неверное число аргументов у " + w[0]);
+    }
+}
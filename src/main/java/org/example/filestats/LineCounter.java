@@ -0,0 +1,74 @@
+package org.example.filestats;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.List;
+
+/**
+ * Счётчик строк для --lines-only: только символы {@code \n}, без декодирования, классификации и
+ * распознавания двоичных файлов. Байты проверяются по 8 за шаг (SWAR): в слове обнуляются байты,
+ * равные {@code \n}, и старшие биты обнулённых байтов считаются одним {@link Long#bitCount}.
+ * <p>
+ * Строк — число {@code \n} плюс последняя строка, если она не завершена. Части файла можно считать
+ * независимо и сложить ({@link #lines(List)}): состояния между байтами нет, кроме последнего байта.
+ */
+final class LineCounter implements ContentReader.ByteSink {
+
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final long NEWLINES = 0x0A0A0A0A0A0A0A0AL;
+    private static final long LOW7 = 0x7F7F7F7F7F7F7F7FL;
+
+    private long newlines;
+    private long length;
+    private byte last;
+
+    void reset() {
+        newlines = 0;
+        length = 0;
+    }
+
+    @Override
+    public boolean accept(byte[] buf, int off, int len) {
+        if (len <= 0) return true;
+        newlines += count(buf, off, len);
+        length += len;
+        last = buf[off + len - 1];
+        return true;
+    }
+
+    long lines() {
+        return newlines + (length > 0 && last != '\n' ? 1 : 0);
+    }
+
+    /**
+     * Строки файла, прочитанного подряд идущими частями {@code parts}.
+     */
+    static long lines(List<LineCounter> parts) {
+        long newlines = 0;
+        LineCounter tail = null;
+        for (LineCounter p : parts) {
+            newlines += p.newlines;
+            if (p.length > 0) tail = p;
+        }
+        return newlines + (tail != null && tail.last != '\n' ? 1 : 0);
+    }
+
+    /**
+     * Число байт {@code \n} в {@code buf[off, off + len)}.
+     */
+    static int count(byte[] buf, int off, int len) {
+        int end = off + len;
+        int n = 0;
+        for (; off + 8 <= end; off += 8) {
+            long x = (long) LONGS.get(buf, off) ^ NEWLINES;
+            // старший бит байта — 1, если байт ненулевой; переносов между байтами нет
+            long nonZero = ((x & LOW7) + LOW7) | x;
+            n += Long.bitCount(~nonZero & ~LOW7);
+        }
+        for (; off < end; off++) {
+            if (buf[off] == '\n') n++;
+        }
+        return n;
+    }
+}
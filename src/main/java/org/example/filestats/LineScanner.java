@@ -0,0 +1,233 @@
+package org.example.filestats;
+
+/**
+ * Потоковый классификатор строк, работающий прямо по байтам UTF-8 без создания строк.
+ * Строки завершаются {@code \n}, {@code \r} или {@code \r\n}, пробельность определяется
+ * {@link Character#isWhitespace(int)}, а при некорректном UTF-8 считаются только символы {@code \n}.
+ * Комментарии распознаются автоматом {@link Dialect}: строка-комментарий — непустая строка,
+ * в которой есть комментарий и нет кода.
+ * <p>
+ * Первые {@link #SNIFF_SIZE} байт проверяются на признаки двоичного файла (байт NUL, сигнатура известного формата);
+ * двоичный файл дальше не читается и строк не имеет.
+ */
+final class LineScanner implements ContentReader.ByteSink {
+
+    static final int SNIFF_SIZE = 8 * 1024;
+
+    private static final int ANY = -1;
+    private static final int DIGIT = -2;
+
+    // сигнатуры форматов, в начале которых может не оказаться NUL; ANY — любой байт, DIGIT — цифра 1-9.
+    // Сигнатуры из печатных символов берутся целиком, чтобы текст с тем же началом не считался двоичным
+    private static final int[][] MAGIC = {
+            {'%', 'P', 'D', 'F', '-'},
+            {0x89, 'P', 'N', 'G'},
+            {0xFF, 0xD8, 0xFF},
+            {'G', 'I', 'F', '8', '7', 'a'},
+            {'G', 'I', 'F', '8', '9', 'a'},
+            {'P', 'K', 3, 4},
+            {'P', 'K', 5, 6},
+            {'P', 'K', 7, 8},
+            {0xCA, 0xFE, 0xBA, 0xBE},
+            {0x7F, 'E', 'L', 'F'},
+            {0x1F, 0x8B},
+            // размер блока 1-9 и магия первого блока π
+            {'B', 'Z', 'h', DIGIT, 0x31, 0x41, 0x59, 0x26, 0x53, 0x59},
+            {0xFD, '7', 'z', 'X', 'Z'},
+            {'7', 'z', 0xBC, 0xAF, 0x27, 0x1C},
+            {'R', 'a', 'r', '!', 0x1A, 0x07},
+            {0x28, 0xB5, 0x2F, 0xFD},
+            {'R', 'I', 'F', 'F', ANY, ANY, ANY, ANY, 'W', 'A', 'V', 'E'},
+            {'R', 'I', 'F', 'F', ANY, ANY, ANY, ANY, 'A', 'V', 'I', ' '},
+            {'R', 'I', 'F', 'F', ANY, ANY, ANY, ANY, 'W', 'E', 'B', 'P'},
+            {'O', 'g', 'g', 'S', 0},
+            {'I', 'D', '3', 2},
+            {'I', 'D', '3', 3},
+            {'I', 'D', '3', 4},
+            {'w', 'O', 'F', 'F', 0, 1, 0, 0},
+            {'w', 'O', 'F', 'F', 'O', 'T', 'T', 'O'},
+            {'w', 'O', 'F', '2', 0, 1, 0, 0},
+            {'w', 'O', 'F', '2', 'O', 'T', 'T', 'O'},
+    };
+
+    private int[] next = Dialect.PLAIN.next;
+    private int[] eof = Dialect.PLAIN.eof;
+    // смещение строки текущего состояния в таблице переходов
+    private int row;
+    // флаги Dialect.CODE/COMMENT/NONBLANK, накопленные за текущую строку (старшие биты — мусор)
+    private int lineFlags;
+
+    private long total, nonEmpty, comment, newlines;
+    private boolean malformed, binary;
+    private int sniffed;
+
+    private boolean inLine, prevCR;
+
+    // состояние декодера UTF-8 между вызовами accept
+    private int need, cp, lo, hi;
+
+    void reset(Dialect dialect) {
+        next = dialect.next;
+        eof = dialect.eof;
+        row = 0;
+        lineFlags = 0;
+        total = nonEmpty = comment = newlines = 0;
+        malformed = binary = false;
+        sniffed = 0;
+        inLine = prevCR = false;
+        need = cp = 0;
+    }
+
+    @Override
+    public boolean accept(byte[] buf, int off, int len) {
+        if (sniffed < SNIFF_SIZE && sniff(buf, off, len)) {
+            binary = true;
+            return false;
+        }
+        int end = off + len;
+        int i = off;
+        if (!malformed) {
+            for (; i < end; i++) {
+                int b = buf[i] & 0xFF;
+                if (need > 0) {
+                    if (b < lo || b > hi) {
+                        malformed = true;
+                        break;
+                    }
+                    cp = (cp << 6) | (b & 0x3F);
+                    lo = 0x80;
+                    hi = 0xBF;
+                    if (--need == 0) step(Character.isWhitespace(cp) ? ' ' : Dialect.OTHER);
+                } else if (b < 0x80) {
+                    if (b == '\n') {
+                        newlines++;
+                        if (prevCR) {
+                            prevCR = false;
+                        } else {
+                            step(b);
+                            endLine();
+                        }
+                    } else if (b == '\r') {
+                        step(b);
+                        endLine();
+                        prevCR = true;
+                    } else {
+                        prevCR = false;
+                        inLine = true;
+                        // смена состояния — редкое событие: ветвление вместо зависимости по данным между байтами
+                        int t = next[row | b];
+                        lineFlags |= t;
+                        if ((t & Dialect.ROW_MASK) != row) row = t & Dialect.ROW_MASK;
+                    }
+                } else if (!startSequence(b)) {
+                    malformed = true;
+                    break;
+                } else {
+                    prevCR = false;
+                    inLine = true;
+                }
+            }
+        }
+        if (i < end) newlines += LineCounter.count(buf, i, end - i);
+        return true;
+    }
+
+    void finish() {
+        if (binary) {
+            total = nonEmpty = comment = 0;
+            return;
+        }
+        if (need > 0) malformed = true;
+        if (!malformed && inLine) {
+            lineFlags |= eof[row >>> 8];
+            endLine();
+        }
+        if (malformed) {
+            total = newlines;
+            nonEmpty = 0;
+            comment = 0;
+        }
+    }
+
+    long totalLines() {
+        return total;
+    }
+
+    long nonEmptyLines() {
+        return nonEmpty;
+    }
+
+    long commentLines() {
+        return comment;
+    }
+
+    boolean binary() {
+        return binary;
+    }
+
+    private boolean sniff(byte[] buf, int off, int len) {
+        if (sniffed == 0) {
+            for (int[] m : MAGIC) {
+                if (matches(m, buf, off, len)) return true;
+            }
+        }
+        int n = Math.min(len, SNIFF_SIZE - sniffed);
+        sniffed += n;
+        for (int i = off, end = off + n; i < end; i++) {
+            if (buf[i] == 0) return true;
+        }
+        return false;
+    }
+
+    private static boolean matches(int[] magic, byte[] buf, int off, int len) {
+        if (len < magic.length) return false;
+        for (int i = 0; i < magic.length; i++) {
+            int b = buf[off + i] & 0xFF;
+            boolean ok = switch (magic[i]) {
+                case ANY -> true;
+                case DIGIT -> b >= '1' && b <= '9';
+                default -> magic[i] == b;
+            };
+            if (!ok) return false;
+        }
+        return true;
+    }
+
+    private boolean startSequence(int b) {
+        lo = 0x80;
+        hi = 0xBF;
+        if (b >= 0xC2 && b <= 0xDF) {
+            need = 1;
+            cp = b & 0x1F;
+        } else if (b >= 0xE0 && b <= 0xEF) {
+            need = 2;
+            cp = b & 0x0F;
+            if (b == 0xE0) lo = 0xA0;
+            else if (b == 0xED) hi = 0x9F;
+        } else if (b >= 0xF0 && b <= 0xF4) {
+            need = 3;
+            cp = b & 0x07;
+            if (b == 0xF0) lo = 0x90;
+            else if (b == 0xF4) hi = 0x8F;
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    private void step(int b) {
+        int t = next[row | b];
+        row = t & Dialect.ROW_MASK;
+        lineFlags |= t;
+    }
+
+    private void endLine() {
+        total++;
+        if ((lineFlags & Dialect.NONBLANK) != 0) {
+            nonEmpty++;
+            if ((lineFlags & (Dialect.COMMENT | Dialect.CODE)) == Dialect.COMMENT) comment++;
+        }
+        inLine = false;
+        lineFlags = 0;
+    }
+}
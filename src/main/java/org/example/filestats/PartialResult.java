@@ -0,0 +1,293 @@
+package org.example.filestats;
+
+import org.example.filestats.FileStatsCli.Stats;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Частичный результат обхода (--emit-partial) для {@code filestats merge}: итоги отчёта по расширениям,
+ * строки по каталогам и список --top, а также корни, шард, опции отбора файлов и контрольная сумма описаний языков.
+ * Части одного обхода, разбитого по шардам, и обходы разных непересекающихся каталогов с одними и теми же
+ * опциями отбора складываются в обычный отчёт.
+ * <p>
+ * Формат — как у {@link StatsCache}: magic, версия, числа в varint, CRC32 в конце.
+ */
+final class PartialResult {
+
+    private static final int MAGIC = 0x46535450; // "FSTP"
+    private static final int VERSION = 3;
+
+    private static final int HAS_EXTS = 1, HAS_DIRS = 2, DIRS_BY_EXT = 4, HAS_TOP = 8;
+
+    final long languages;
+    // абсолютные пути корней обхода
+    final List<String> roots;
+    // корни, как они указаны в командной строке: с ними начинаются пути --top при сложении разных каталогов
+    final List<String> labels;
+    // опции, от которых зависит, какие файлы посчитаны: глубина, --git-ignore, --include-ext, --exclude-ext
+    final String filters;
+    final int shard;
+    final int shards;
+    final int topLimit;
+    final ReportWriter.Report report;
+
+    PartialResult(long languages, List<String> roots, List<String> labels, String filters, int shard, int shards, int topLimit,
+                  ReportWriter.Report report) {
+        this.languages = languages;
+        this.roots = roots;
+        this.labels = labels;
+        this.filters = filters;
+        this.shard = shard;
+        this.shards = shards;
+        this.topLimit = topLimit;
+        this.report = report;
+    }
+
+    private int flags() {
+        return (report.byExt != null ? HAS_EXTS : 0) | (report.dirs != null ? HAS_DIRS : 0)
+                | (report.dirsByExt ? DIRS_BY_EXT : 0) | (report.top != null ? HAS_TOP : 0);
+    }
+
+    void write(OutputStream target) throws IOException {
+        CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(target, 64 * 1024), new CRC32());
+        DataOutputStream out = new DataOutputStream(checked);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(languages);
+        StatsCache.writeVarLong(out, roots.size());
+        for (String r : roots) out.writeUTF(r);
+        for (String l : labels) out.writeUTF(l);
+        out.writeUTF(filters);
+        StatsCache.writeVarLong(out, shard);
+        StatsCache.writeVarLong(out, shards);
+        out.writeByte(flags());
+        if (report.byExt != null) {
+            StatsCache.writeVarLong(out, report.byExt.size());
+            for (Map.Entry<String, Stats> e : report.byExt.entrySet()) {
+                Stats s = e.getValue();
+                out.writeUTF(e.getKey());
+                writeCounters(out, s.files.sum(), s.bytes.sum(), s.totalLines.sum(), s.nonEmptyLines.sum(), s.commentLines.sum(), s.binaryFiles.sum());
+            }
+        }
+        if (report.dirs != null) {
+            StatsCache.writeVarLong(out, report.dirs.size());
+            for (DirTree.Row r : report.dirs) {
+                out.writeUTF(r.dir);
+                out.writeUTF(r.ext);
+                writeCounters(out, r.files, r.bytes, r.lines, r.nonEmpty, r.comment, r.binary);
+            }
+        }
+        if (report.top != null) {
+            StatsCache.writeVarLong(out, topLimit);
+            StatsCache.writeVarLong(out, report.top.size());
+            for (TopFiles.Entry e : report.top) {
+                out.writeUTF(e.path);
+                StatsCache.writeVarLong(out, e.bytes);
+            }
+        }
+        out.flush();
+        out.writeLong(checked.getChecksum().getValue());
+        out.flush();
+    }
+
+    private static void writeCounters(DataOutputStream out, long... counters) throws IOException {
+        for (long c : counters) StatsCache.writeVarLong(out, c);
+    }
+
+    /**
+     * @throws IOException если это не частичный результат или он повреждён
+     */
+    static PartialResult read(InputStream source) throws IOException {
+        CheckedInputStream checked = new CheckedInputStream(new BufferedInputStream(source, 64 * 1024), new CRC32());
+        DataInputStream in = new DataInputStream(checked);
+        if (in.readInt() != MAGIC) throw new IOException("не частичный результат filestats");
+        if (in.readInt() != VERSION) throw new IOException("неподдерживаемая версия формата");
+        long languages = in.readLong();
+        List<String> roots = new ArrayList<>();
+        for (long i = readCount(in); i > 0; i--) roots.add(in.readUTF());
+        List<String> labels = new ArrayList<>(roots.size());
+        for (int i = 0; i < roots.size(); i++) labels.add(in.readUTF());
+        String filters = in.readUTF();
+        int shard = (int) readCount(in);
+        int shards = (int) readCount(in);
+        int flags = in.readUnsignedByte();
+        Map<String, Stats> byExt = null;
+        if ((flags & HAS_EXTS) != 0) {
+            byExt = new TreeMap<>();
+            for (long i = readCount(in); i > 0; i--) {
+                Stats s = new Stats();
+                byExt.put(in.readUTF(), s);
+                s.files.add(StatsCache.readVarLong(in));
+                s.bytes.add(StatsCache.readVarLong(in));
+                s.totalLines.add(StatsCache.readVarLong(in));
+                s.nonEmptyLines.add(StatsCache.readVarLong(in));
+                s.commentLines.add(StatsCache.readVarLong(in));
+                s.binaryFiles.add(StatsCache.readVarLong(in));
+            }
+        }
+        List<DirTree.Row> dirs = null;
+        if ((flags & HAS_DIRS) != 0) {
+            dirs = new ArrayList<>();
+            for (long i = readCount(in); i > 0; i--) {
+                dirs.add(new DirTree.Row(in.readUTF(), in.readUTF(), StatsCache.readVarLong(in), StatsCache.readVarLong(in),
+                        StatsCache.readVarLong(in), StatsCache.readVarLong(in), StatsCache.readVarLong(in), StatsCache.readVarLong(in)));
+            }
+        }
+        int topLimit = 0;
+        List<TopFiles.Entry> top = null;
+        if ((flags & HAS_TOP) != 0) {
+            topLimit = (int) readCount(in);
+            top = new ArrayList<>();
+            for (long i = readCount(in); i > 0; i--) top.add(new TopFiles.Entry(in.readUTF(), StatsCache.readVarLong(in)));
+        }
+        long expected = checked.getChecksum().getValue();
+        if (in.readLong() != expected) throw new IOException("неверная контрольная сумма");
+        ReportWriter.Report report = new ReportWriter.Report(byExt, dirs, (flags & DIRS_BY_EXT) != 0, top, false, null, false);
+        return new PartialResult(languages, roots, labels, filters, shard, shards, topLimit, report);
+    }
+
+    // один и тот же файл не должен попасть в сумму из частей с разными корнями
+    private static void checkDisjoint(Collection<List<String>> rootSets) {
+        List<List<String>> sets = new ArrayList<>(rootSets);
+        for (int i = 0; i < sets.size(); i++) {
+            for (int j = i + 1; j < sets.size(); j++) {
+                for (String a : sets.get(i)) {
+                    for (String b : sets.get(j)) {
+                        Path pa = Path.of(a), pb = Path.of(b);
+                        if (pa.startsWith(pb) || pb.startsWith(pa)) {
+                            throw new IllegalArgumentException("Каталоги частей совпадают или вложены друг в друга: " + a + ", " + b);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static long readCount(DataInputStream in) throws IOException {
+        long n = StatsCache.readVarLong(in);
+        if (n < 0 || n > Integer.MAX_VALUE) throw new IOException("некорректное число");
+        return n;
+    }
+
+    /**
+     * Складывает части в один отчёт. Все части должны быть посчитаны с одними и теми же опциями отбора файлов,
+     * части разных наборов корней — по непересекающимся каталогам, части одного набора — покрывать разные шарды
+     * с одним и тем же их числом, а --top — с одним и тем же N; недостающие шарды — предупреждение в {@code err}.
+     * Пути --top у частей разных наборов корней начинаются с каталога, как он указан, — как при обходе
+     * этих каталогов одним запуском.
+     *
+     * @throws IllegalArgumentException если части нельзя сложить
+     */
+    static ReportWriter.Report merge(List<PartialResult> parts, PrintStream err) {
+        PartialResult first = parts.get(0);
+        boolean sameRoots = true;
+        boolean sameLanguages = true;
+        Map<List<String>, Integer> shardCounts = new HashMap<>();
+        Map<List<String>, TreeSet<Integer>> seen = new LinkedHashMap<>();
+        for (PartialResult p : parts) {
+            if (p.flags() != first.flags()) {
+                throw new IllegalArgumentException("Части посчитаны с разной группировкой (--group-by, --top)");
+            }
+            if (!p.filters.equals(first.filters)) {
+                throw new IllegalArgumentException("Части посчитаны с разными опциями отбора файлов: " + first.filters + " и " + p.filters);
+            }
+            if (p.topLimit != first.topLimit) {
+                throw new IllegalArgumentException("Части посчитаны с разным --top: " + first.topLimit + " и " + p.topLimit);
+            }
+            sameRoots &= p.roots.equals(first.roots);
+            Integer n = shardCounts.putIfAbsent(p.roots, p.shards);
+            if (n != null && n != p.shards) {
+                throw new IllegalArgumentException("Части одних и тех же каталогов разбиты на разное число шардов: " + p.roots);
+            }
+            if (!seen.computeIfAbsent(p.roots, k -> new TreeSet<>()).add(p.shard)) {
+                throw new IllegalArgumentException("Часть повторяется: шард " + p.shard + "/" + p.shards + " для " + p.roots);
+            }
+            sameLanguages &= p.languages == first.languages;
+        }
+        checkDisjoint(seen.keySet());
+        if (first.report.dirs != null && !sameRoots) {
+            throw new IllegalArgumentException("Разбивку по каталогам можно сложить только для частей с одними и теми же корнями");
+        }
+        if (!sameLanguages) {
+            err.println("Предупреждение: части посчитаны с разными описаниями языков, строки комментариев могут не сходиться");
+        }
+        for (Map.Entry<List<String>, TreeSet<Integer>> e : seen.entrySet()) {
+            int n = shardCounts.get(e.getKey());
+            if (e.getValue().size() == n) continue;
+            List<Integer> missing = new ArrayList<>();
+            for (int i = 0; i < n; i++) if (!e.getValue().contains(i)) missing.add(i);
+            err.println("Предупреждение: нет шардов " + missing + " из " + n + " для " + e.getKey());
+        }
+
+        Map<String, Stats> byExt = null;
+        if (first.report.byExt != null) {
+            byExt = new TreeMap<>();
+            for (PartialResult p : parts) {
+                for (Map.Entry<String, Stats> e : p.report.byExt.entrySet()) {
+                    Stats from = e.getValue();
+                    Stats to = byExt.computeIfAbsent(e.getKey(), k -> new Stats());
+                    to.files.add(from.files.sum());
+                    to.bytes.add(from.bytes.sum());
+                    to.totalLines.add(from.totalLines.sum());
+                    to.nonEmptyLines.add(from.nonEmptyLines.sum());
+                    to.commentLines.add(from.commentLines.sum());
+                    to.binaryFiles.add(from.binaryFiles.sum());
+                }
+            }
+        }
+        List<DirTree.Row> dirs = null;
+        if (first.report.dirs != null) {
+            // шарды делят файлы, а не каталоги, так что суммы по поддеревьям просто складываются
+            Map<String, Map<String, long[]>> sums = new TreeMap<>();
+            for (PartialResult p : parts) {
+                for (DirTree.Row r : p.report.dirs) {
+                    long[] c = sums.computeIfAbsent(r.dir, k -> new TreeMap<>()).computeIfAbsent(r.ext, k -> new long[6]);
+                    c[0] += r.files;
+                    c[1] += r.bytes;
+                    c[2] += r.lines;
+                    c[3] += r.nonEmpty;
+                    c[4] += r.comment;
+                    c[5] += r.binary;
+                }
+            }
+            dirs = new ArrayList<>();
+            for (Map.Entry<String, Map<String, long[]>> d : sums.entrySet()) {
+                for (Map.Entry<String, long[]> e : d.getValue().entrySet()) {
+                    long[] c = e.getValue();
+                    dirs.add(new DirTree.Row(d.getKey(), e.getKey(), c[0], c[1], c[2], c[3], c[4], c[5]));
+                }
+            }
+        }
+        List<TopFiles.Entry> top = null;
+        if (first.report.top != null) {
+            top = new ArrayList<>();
+            for (PartialResult p : parts) {
+                // в части нескольких каталогов пути уже начинаются с метки, в части одного — относительны корню
+                String prefix = !sameRoots && p.roots.size() == 1 ? p.labels.get(0) + "/" : "";
+                for (TopFiles.Entry e : p.report.top) top.add(new TopFiles.Entry(prefix + e.path, e.bytes));
+            }
+            TopFiles.sort(top);
+            if (top.size() > first.topLimit) top = new ArrayList<>(top.subList(0, first.topLimit));
+        }
+        return new ReportWriter.Report(byExt, dirs, first.report.dirsByExt, top, false, null, false);
+    }
+}
@@ -0,0 +1,43 @@
+package org.example.filestats;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Общий для всех потоков предел скорости чтения (--max-read-rate): каждый прочитанный блок сдвигает
+ * «время освобождения» на {@code len / rate}, и поток, обогнавший его, спит разницу. Простой после
+ * паузы копит не больше {@link #BURST_NANOS} запаса, так что средняя скорость не превышает предел
+ * и после затишья.
+ */
+final class ReadLimiter {
+
+    private static final long BURST_NANOS = 100_000_000;
+
+    private final double nanosPerByte;
+    private long next = System.nanoTime();
+
+    ReadLimiter(long bytesPerSecond) {
+        this.nanosPerByte = 1e9 / bytesPerSecond;
+    }
+
+    void acquire(int bytes) {
+        long until;
+        synchronized (this) {
+            long now = System.nanoTime();
+            if (now - next > BURST_NANOS) next = now - BURST_NANOS;
+            next += (long) (bytes * nanosPerByte);
+            until = next;
+        }
+        long wait;
+        while ((wait = until - System.nanoTime()) > 0 && !Thread.currentThread().isInterrupted()) LockSupport.parkNanos(wait);
+    }
+
+    /**
+     * {@code sink}, перед которым каждый блок проходит через предел.
+     */
+    ContentReader.ByteSink paced(ContentReader.ByteSink sink) {
+        return (buf, off, len) -> {
+            acquire(len);
+            return sink.accept(buf, off, len);
+        };
+    }
+}
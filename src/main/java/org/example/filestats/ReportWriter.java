@@ -0,0 +1,356 @@
+package org.example.filestats;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.dataformat.xml.XmlMapper;
+import com.fasterxml.jackson.dataformat.xml.ser.ToXmlGenerator;
+import org.example.filestats.FileStatsCli.Output;
+import org.example.filestats.FileStatsCli.Stats;
+
+import javax.xml.namespace.QName;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Пишет отчёт напрямую в {@link Writer}, без промежуточных DTO и строки со всем отчётом:
+ * JSON и XML — потоковыми генераторами Jackson, plain — построчно.
+ * Мапперы создаются один раз на процесс.
+ * <p>
+ * Отчёт только по расширениям сохраняет прежний вид; с разбивкой по каталогам или списком --top
+ * JSON становится объектом с разделами {@code exts}/{@code dirs}/{@code top}. Счётчики дубликатов
+ * ({@code dupFiles}/{@code dupBytes}) выводятся только с --dedupe. С --sample/--time-budget счётчики — оценки,
+ * к ним добавляются число прочитанных файлов ({@code sampled}), признак полноты ({@code complete}) и полуширины
+ * 95% интервалов ({@code ci95}); счётчики расширения, которое по выборке не оценить, — {@code null} (в plain — «-»).
+ * Если бюджет времени остановил обход или чтение, итоги расширения неполны: {@code complete} — false, счётчики —
+ * нижние границы (в plain — «≥»), интервала нет.
+ * С --lines-only выводятся только {@code files}, {@code bytes} и {@code lines}.
+ */
+final class ReportWriter {
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+    private static final XmlMapper XML = new XmlMapper();
+
+    static {
+        JSON.getFactory().disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        XML.getFactory().disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    }
+
+    // Ext, Files, Bytes, Lines, NonEmpty, Comment, Binary, DupFiles, DupBytes, Sampled
+    private static final int[] PLAIN_WIDTHS = {8, 7, 11, 7, 9, 8, 6, 8, 11, 7};
+
+    /**
+     * Разделы отчёта; отсутствующие — {@code null}.
+     */
+    static final class Report {
+        final Map<String, Stats> byExt;
+        // строки по каталогам, отсортированные по пути и расширению
+        final List<DirTree.Row> dirs;
+        final boolean dirsByExt;
+        final List<TopFiles.Entry> top;
+        final boolean dedupe;
+        // оценки по выборке, по расширениям
+        final Map<String, Sampler.Estimate> estimates;
+        final boolean linesOnly;
+
+        /**
+         * Отчёт только по расширениям.
+         */
+        Report(Map<String, Stats> byExt, boolean linesOnly) {
+            this(byExt, null, false, null, false, null, linesOnly);
+        }
+
+        Report(Map<String, Stats> byExt, List<DirTree.Row> dirs, boolean dirsByExt, List<TopFiles.Entry> top, boolean dedupe,
+               Map<String, Sampler.Estimate> estimates, boolean linesOnly) {
+            this.byExt = byExt != null && !(byExt instanceof TreeMap) ? new TreeMap<>(byExt) : byExt;
+            this.dirs = dirs;
+            this.dirsByExt = dirsByExt;
+            this.top = top;
+            this.dedupe = dedupe;
+            this.estimates = estimates;
+            this.linesOnly = linesOnly;
+        }
+    }
+
+    private ReportWriter() {
+    }
+
+    static void write(Output format, boolean compact, Map<String, Stats> stats, Writer out) throws IOException {
+        write(format, compact, new Report(stats, false), out);
+    }
+
+    static void write(Output format, boolean compact, Report report, Writer out) throws IOException {
+        List<DirTree.Row> dirRows = report.dirs;
+        switch (format) {
+            case json -> writeJson(report, dirRows, compact, out);
+            case xml -> writeXml(report, dirRows, compact, out);
+            default -> writePlain(report, dirRows, out);
+        }
+        out.write(System.lineSeparator());
+        out.flush();
+    }
+
+    /**
+     * Генератор JSON на общем маппере; {@code out} при закрытии генератора не закрывается.
+     */
+    static JsonGenerator jsonGenerator(Writer out, boolean compact) throws IOException {
+        return (compact ? JSON.writer() : JSON.writerWithDefaultPrettyPrinter()).createGenerator(out);
+    }
+
+    private static void writePlain(Report report, List<DirTree.Row> dirRows, Writer out) throws IOException {
+        boolean first = true;
+        if (report.byExt != null) {
+            int[] columns = extColumns(report);
+            String mark = report.estimates != null ? "~" : "";
+            extRow(out, columns, "Ext", "Files", mark + "Bytes", mark + "Lines", mark + "NonEmpty", mark + "Comment", mark + "Binary",
+                    "DupFiles", "DupBytes", "Sampled");
+            for (Map.Entry<String, Stats> e : report.byExt.entrySet()) {
+                Stats s = e.getValue();
+                Sampler.Estimate est = report.estimates != null ? report.estimates.get(e.getKey()) : null;
+                if (est != null && !est.estimable) {
+                    extRow(out, columns, e.getKey(), Long.toString(s.files.sum()), "-", "-", "-", "-", "-", "-", "-", Long.toString(est.sampled));
+                    continue;
+                }
+                String atLeast = est != null && !est.complete ? "≥" : "";
+                extRow(out, columns, e.getKey(), Long.toString(s.files.sum()), atLeast + s.bytes.sum(), atLeast + s.totalLines.sum(),
+                        atLeast + s.nonEmptyLines.sum(), atLeast + s.commentLines.sum(), atLeast + s.binaryFiles.sum(),
+                        Long.toString(s.dupFiles.sum()), Long.toString(s.dupBytes.sum()),
+                        est != null ? Long.toString(est.sampled) : "");
+            }
+            first = false;
+        }
+        if (dirRows != null) {
+            if (!first) out.write(System.lineSeparator());
+            int dirWidth = 8;
+            for (DirTree.Row r : dirRows) dirWidth = Math.max(dirWidth, r.dir.length());
+            int counters = report.linesOnly ? 3 : 6;
+            if (report.dirsByExt) {
+                int[] widths = Arrays.copyOf(new int[]{dirWidth, 8, 7, 11, 7, 9, 8, 6}, 2 + counters);
+                row(out, widths, "Dir", "Ext", "Files", "Bytes", "Lines", "NonEmpty", "Comment", "Binary");
+                for (DirTree.Row r : dirRows) {
+                    row(out, widths, r.dir, r.ext, Long.toString(r.files), Long.toString(r.bytes), Long.toString(r.lines),
+                            Long.toString(r.nonEmpty), Long.toString(r.comment), Long.toString(r.binary));
+                }
+            } else {
+                int[] widths = Arrays.copyOf(new int[]{dirWidth, 7, 11, 7, 9, 8, 6}, 1 + counters);
+                row(out, widths, "Dir", "Files", "Bytes", "Lines", "NonEmpty", "Comment", "Binary");
+                for (DirTree.Row r : dirRows) {
+                    row(out, widths, r.dir, Long.toString(r.files), Long.toString(r.bytes), Long.toString(r.lines),
+                            Long.toString(r.nonEmpty), Long.toString(r.comment), Long.toString(r.binary));
+                }
+            }
+            first = false;
+        }
+        if (report.top != null) {
+            if (!first) out.write(System.lineSeparator());
+            int[] widths = {11, 0};
+            row(out, widths, "Bytes", "File");
+            for (TopFiles.Entry e : report.top) row(out, widths, Long.toString(e.bytes), e.path);
+        }
+    }
+
+    // колонки PLAIN_WIDTHS, которые есть в отчёте по расширениям
+    private static int[] extColumns(Report report) {
+        int[] columns = new int[PLAIN_WIDTHS.length];
+        int n = 0;
+        for (int c = 0; c < PLAIN_WIDTHS.length; c++) {
+            boolean shown = c < 4 || (c < 7 ? !report.linesOnly : c < 9 ? report.dedupe : report.estimates != null);
+            if (shown) columns[n++] = c;
+        }
+        return Arrays.copyOf(columns, n);
+    }
+
+    private static void extRow(Writer out, int[] columns, String... cells) throws IOException {
+        int[] widths = new int[columns.length];
+        String[] shown = new String[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            widths[i] = PLAIN_WIDTHS[columns[i]];
+            shown[i] = cells[columns[i]];
+        }
+        row(out, widths, shown);
+    }
+
+    // выводятся первые widths.length ячеек
+    private static void row(Writer out, int[] widths, String... cells) throws IOException {
+        for (int i = 0; i < widths.length; i++) {
+            if (i > 0) out.write(' ');
+            out.write(cells[i]);
+            for (int pad = cells[i].length(); pad < widths[i]; pad++) out.write(' ');
+        }
+        out.write(System.lineSeparator());
+    }
+
+    private static void writeJson(Report report, List<DirTree.Row> dirRows, boolean compact, Writer out) throws IOException {
+        boolean sections = dirRows != null || report.top != null;
+        try (JsonGenerator g = jsonGenerator(out, compact)) {
+            g.writeStartObject();
+            if (report.byExt != null) {
+                if (sections) {
+                    g.writeFieldName("exts");
+                    g.writeStartObject();
+                }
+                for (Map.Entry<String, Stats> e : report.byExt.entrySet()) {
+                    g.writeFieldName(e.getKey());
+                    g.writeStartObject();
+                    writeExt(g, e.getKey(), e.getValue(), report);
+                    g.writeEndObject();
+                }
+                if (sections) g.writeEndObject();
+            }
+            if (dirRows != null) {
+                g.writeFieldName("dirs");
+                g.writeStartObject();
+                boolean byExt = report.dirsByExt;
+                String dir = null;
+                for (DirTree.Row r : dirRows) {
+                    if (byExt) {
+                        if (!r.dir.equals(dir)) {
+                            if (dir != null) g.writeEndObject();
+                            g.writeFieldName(r.dir);
+                            g.writeStartObject();
+                            dir = r.dir;
+                        }
+                        g.writeFieldName(r.ext);
+                    } else {
+                        g.writeFieldName(r.dir);
+                    }
+                    g.writeStartObject();
+                    writeCounters(g, r, report.linesOnly);
+                    g.writeEndObject();
+                }
+                if (dir != null) g.writeEndObject();
+                g.writeEndObject();
+            }
+            if (report.top != null) {
+                g.writeFieldName("top");
+                g.writeStartArray();
+                for (TopFiles.Entry e : report.top) {
+                    g.writeStartObject();
+                    g.writeStringField("path", e.path);
+                    g.writeNumberField("bytes", e.bytes);
+                    g.writeEndObject();
+                }
+                g.writeEndArray();
+            }
+            g.writeEndObject();
+        }
+    }
+
+    private static void writeXml(Report report, List<DirTree.Row> dirRows, boolean compact, Writer out) throws IOException {
+        ObjectWriter w = compact ? XML.writer() : XML.writerWithDefaultPrettyPrinter();
+        try (ToXmlGenerator g = (ToXmlGenerator) w.createGenerator(out)) {
+            g.setNextName(new QName("stats"));
+            g.writeStartObject();
+            if (report.byExt != null) {
+                for (Map.Entry<String, Stats> e : report.byExt.entrySet()) {
+                    g.writeFieldName("ext");
+                    g.writeStartObject();
+                    writeAttribute(g, "name", e.getKey());
+                    writeExt(g, e.getKey(), e.getValue(), report);
+                    g.writeEndObject();
+                }
+            }
+            if (dirRows != null) {
+                boolean byExt = report.dirsByExt;
+                String dir = null;
+                for (DirTree.Row r : dirRows) {
+                    if (!r.dir.equals(dir)) {
+                        if (dir != null) g.writeEndObject();
+                        g.writeFieldName("dir");
+                        g.writeStartObject();
+                        writeAttribute(g, "path", r.dir);
+                        dir = r.dir;
+                    }
+                    if (byExt) {
+                        g.writeFieldName("ext");
+                        g.writeStartObject();
+                        writeAttribute(g, "name", r.ext);
+                        writeCounters(g, r, report.linesOnly);
+                        g.writeEndObject();
+                    } else {
+                        writeCounters(g, r, report.linesOnly);
+                    }
+                }
+                if (dir != null) g.writeEndObject();
+            }
+            if (report.top != null) {
+                g.writeFieldName("top");
+                g.writeStartObject();
+                for (TopFiles.Entry e : report.top) {
+                    g.writeFieldName("file");
+                    g.writeStartObject();
+                    writeAttribute(g, "path", e.path);
+                    g.writeNumberField("bytes", e.bytes);
+                    g.writeEndObject();
+                }
+                g.writeEndObject();
+            }
+            g.writeEndObject();
+        }
+    }
+
+    private static void writeAttribute(ToXmlGenerator g, String name, String value) throws IOException {
+        g.setNextIsAttribute(true);
+        g.writeStringField(name, value);
+        g.setNextIsAttribute(false);
+    }
+
+    private static void writeCounters(JsonGenerator g, Stats s, Report report) throws IOException {
+        writeCounters(g, report.linesOnly, s.files.sum(), s.bytes.sum(), s.totalLines.sum(), s.nonEmptyLines.sum(), s.commentLines.sum(),
+                s.binaryFiles.sum());
+        if (report.dedupe) {
+            g.writeNumberField("dupFiles", s.dupFiles.sum());
+            g.writeNumberField("dupBytes", s.dupBytes.sum());
+        }
+    }
+
+    private static void writeExt(JsonGenerator g, String ext, Stats s, Report report) throws IOException {
+        Sampler.Estimate est = report.estimates != null ? report.estimates.get(ext) : null;
+        if (est != null && !est.estimable) {
+            g.writeNumberField("files", s.files.sum());
+            for (String name : report.linesOnly ? new String[]{"bytes", "lines"} : new String[]{"bytes", "lines", "nonEmpty", "comment", "binary"}) {
+                g.writeNullField(name);
+            }
+        } else {
+            writeCounters(g, s, report);
+        }
+        if (est != null) writeEstimate(g, est, report.linesOnly);
+    }
+
+    private static void writeEstimate(JsonGenerator g, Sampler.Estimate est, boolean linesOnly) throws IOException {
+        g.writeNumberField("sampled", est.sampled);
+        g.writeBooleanField("complete", est.complete);
+        if (est.ci95 == null) return;
+        g.writeFieldName("ci95");
+        g.writeStartObject();
+        g.writeNumberField("bytes", est.ci95[0]);
+        g.writeNumberField("lines", est.ci95[1]);
+        if (linesOnly) {
+            g.writeEndObject();
+            return;
+        }
+        g.writeNumberField("nonEmpty", est.ci95[2]);
+        g.writeNumberField("comment", est.ci95[3]);
+        g.writeNumberField("binary", est.ci95[4]);
+        g.writeEndObject();
+    }
+
+    private static void writeCounters(JsonGenerator g, DirTree.Row r, boolean linesOnly) throws IOException {
+        writeCounters(g, linesOnly, r.files, r.bytes, r.lines, r.nonEmpty, r.comment, r.binary);
+    }
+
+    private static void writeCounters(JsonGenerator g, boolean linesOnly, long files, long bytes, long lines, long nonEmpty, long comment,
+                                      long binary) throws IOException {
+        g.writeNumberField("files", files);
+        g.writeNumberField("bytes", bytes);
+        g.writeNumberField("lines", lines);
+        if (linesOnly) return;
+        g.writeNumberField("nonEmpty", nonEmpty);
+        g.writeNumberField("comment", comment);
+        g.writeNumberField("binary", binary);
+    }
+}
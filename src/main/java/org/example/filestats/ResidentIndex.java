@@ -0,0 +1,188 @@
+package org.example.filestats;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Состояние, которое сервер ({@code filestats serve}) держит в памяти между запросами: по слоту на набор
+ * корней, описаний языков и опций отбора файлов. В слоте — кэш статистики, {@link TreeWatcher} по каждому
+ * корню и последний отчёт. Пока за каталогами следят, повторный запрос не обходит дерево: берёт отчёт
+ * как есть или пересчитывает только пути, о которых пришли события. Запросы по одному слоту выполняются
+ * по очереди, по разным — параллельно.
+ * <p>
+ * Слотов не больше {@code maxSlots}: давно не запрошенный вытесняется вместе с кэшем и наблюдателями.
+ */
+final class ResidentIndex implements Closeable {
+
+    static final int DEFAULT_MAX_SLOTS = 8;
+
+    private final int maxSlots;
+    // в порядке обращений: первый — давно не запрошенный
+    private final Map<String, Slot> slots = new LinkedHashMap<>(16, 0.75f, true);
+
+    ResidentIndex() {
+        this(DEFAULT_MAX_SLOTS);
+    }
+
+    ResidentIndex(int maxSlots) {
+        this.maxSlots = Math.max(1, maxSlots);
+    }
+
+    /**
+     * @param filters опции, от которых зависит, какие файлы попадают в обход (см. {@link FileStatsCli})
+     */
+    Slot slot(List<Path> roots, long languages, String filters) {
+        List<Slot> evicted = new ArrayList<>();
+        Slot slot;
+        synchronized (slots) {
+            slot = slots.computeIfAbsent(roots + "\0" + languages + "\0" + filters, k -> new Slot(languages));
+            Iterator<Slot> it = slots.values().iterator();
+            while (slots.size() > maxSlots) {
+                evicted.add(it.next());
+                it.remove();
+            }
+        }
+        // слот может быть занят запросом: закрывается, когда тот завершится
+        for (Slot s : evicted) s.close();
+        return slot;
+    }
+
+    int size() {
+        synchronized (slots) {
+            return slots.size();
+        }
+    }
+
+    @Override
+    public void close() {
+        List<Slot> all;
+        synchronized (slots) {
+            all = new ArrayList<>(slots.values());
+            slots.clear();
+        }
+        for (Slot s : all) s.close();
+    }
+
+    static final class Slot implements Closeable {
+        final ReentrantLock lock = new ReentrantLock();
+        private final long languages;
+        private StatsCache cache;
+        // по одному на корень; null, пока за каталогами не следят
+        private List<TreeWatcher> watchers;
+        private ReportWriter.Report report;
+        // опции отчёта, с которыми построен report
+        private String reportKey;
+        private boolean closed;
+
+        private Slot(long languages) {
+            this.languages = languages;
+        }
+
+        /**
+         * Кэш для очередного полного прогона; вызывается под {@link #lock}, как и остальные методы.
+         *
+         * @param file файл --cache или {@code null}; при первом обращении кэш читается из него
+         */
+        StatsCache open(Path file, PrintStream err) {
+            if (cache == null) {
+                cache = file != null ? StatsCache.load(file, languages, err) : StatsCache.empty(null, languages);
+            } else {
+                cache = cache.carryOver(file);
+            }
+            return cache;
+        }
+
+        /**
+         * Кэш последнего прогона со всеми его записями — для обновления по изменившимся путям.
+         */
+        StatsCache cache() {
+            return cache;
+        }
+
+        /**
+         * Последний отчёт, если он построен с теми же опциями и за каталогами следят.
+         */
+        ReportWriter.Report report(String key) {
+            return watchers != null && key.equals(reportKey) ? report : null;
+        }
+
+        TreeWatcher watcher(int root) {
+            return watchers.get(root);
+        }
+
+        /**
+         * Изменения по корням с прошлого запроса или {@code null}, если нужен полный обход
+         * (переполнение очереди событий, правка .gitignore, удалённый корень).
+         */
+        List<TreeWatcher.Changes> poll(PrintStream err) {
+            List<TreeWatcher.Changes> changes = new ArrayList<>(watchers.size());
+            boolean rescan = false;
+            for (TreeWatcher w : watchers) {
+                TreeWatcher.Changes c = w.poll(err);
+                if (c == null || c.rescan) rescan = true;
+                changes.add(c);
+            }
+            return rescan ? null : changes;
+        }
+
+        /**
+         * Начинает следить за корнями перед полным обходом; уже накопленные события отбрасываются — их учтёт
+         * обход. Если всё дерево отследить не удалось, слот остаётся без наблюдателей и обходит дерево каждый раз.
+         */
+        void watch(Opener opener, PrintStream err) throws IOException {
+            if (closed) return;
+            if (watchers == null) {
+                watchers = opener.open();
+            } else {
+                for (TreeWatcher w : watchers) w.poll(err);
+            }
+            for (TreeWatcher w : watchers) {
+                if (!w.complete()) {
+                    closeWatchers();
+                    return;
+                }
+            }
+        }
+
+        void keep(String key, ReportWriter.Report report) {
+            this.reportKey = key;
+            this.report = report;
+        }
+
+        @Override
+        public void close() {
+            lock.lock();
+            try {
+                closed = true;
+                closeWatchers();
+                cache = null;
+                report = null;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void closeWatchers() {
+            if (watchers == null) return;
+            for (TreeWatcher w : watchers) {
+                try {
+                    w.close();
+                } catch (IOException ignore) {
+                }
+            }
+            watchers = null;
+        }
+    }
+
+    interface Opener {
+        List<TreeWatcher> open() throws IOException;
+    }
+}
@@ -0,0 +1,220 @@
+package org.example.filestats;
+
+import org.example.filestats.FileStatsCli.Stats;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Выборка для --sample и --time-budget. Обход по-прежнему находит все файлы и считает их по расширениям,
+ * а читается только выборка. Каждое расширение — отдельный слой из двух частей:
+ * первые {@link #MIN_PER_EXT} найденных файлов читаются всегда (обязательная часть, редкие расширения
+ * считаются точно), из остальных берётся файл, если хэш его пути попал в долю {@code fraction}.
+ * <p>
+ * Обязательная часть входит в итог как есть, остальные файлы слоя оцениваются по своей выборке
+ * (среднее × их число) с 95% доверительным интервалом для выборки без возвращения. Если из остальных не прочитано
+ * ни одного файла, итог слоя не оценивается.
+ * <p>
+ * Когда истекает бюджет времени, обход и чтение прекращаются, и итоги слоя — только нижние границы, без интервала:
+ * если прочитаны все отобранные файлы слоя — оценка по найденным файлам (остальные обход не нашёл), иначе — суммы
+ * по прочитанным файлам, а если не прочитано ни одного — итог не оценивается. Прочитанные до истечения бюджета —
+ * первые в порядке обработки, а не случайная выборка, так что распространять их на остальные файлы нельзя.
+ */
+final class Sampler {
+
+    static final int MIN_PER_EXT = 30;
+    private static final double Z95 = 1.96;
+
+    // bytes, lines, nonEmpty, comment, binary
+    static final int METRICS = 5;
+
+    private static final class Stratum {
+        final AtomicLong seen = new AtomicLong();
+        // отобранные в выборку, в том числе те, что бюджет времени не дал прочитать
+        final AtomicLong selected = new AtomicLong();
+    }
+
+    /**
+     * Оценка по расширению: сколько файлов найдено и прочитано, оценены ли итоги, полны ли они (иначе это нижние
+     * границы) и полуширина 95% интервала по каждому счётчику ({@code null}, если по выборке её не оценить
+     * или итоги неполны).
+     */
+    static final class Estimate {
+        final long found;
+        final long sampled;
+        final boolean estimable;
+        final boolean complete;
+        final long[] ci95;
+
+        Estimate(long found, long sampled, boolean estimable, boolean complete, long[] ci95) {
+            this.found = found;
+            this.sampled = sampled;
+            this.estimable = estimable;
+            this.complete = complete;
+            this.ci95 = ci95;
+        }
+    }
+
+    private final long threshold;
+    private final long deadline;
+    private final boolean budget;
+    private final Map<String, Stratum> strata = new ConcurrentHashMap<>();
+    private volatile boolean walkStopped;
+    // обязательная часть слоёв
+    private final Set<Path> census = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param fraction     доля файлов в выборке, (0, 1]
+     * @param budgetMillis бюджет времени от текущего момента; 0 — без ограничения
+     */
+    Sampler(double fraction, long budgetMillis) {
+        this.threshold = fraction >= 1 ? 1L << 32 : (long) (fraction * (1L << 32));
+        this.budget = budgetMillis > 0;
+        this.deadline = System.nanoTime() + budgetMillis * 1_000_000;
+    }
+
+    /**
+     * Учитывает найденный файл и решает, читать ли его. Попадание в выборку от времени не зависит: отобранный
+     * после истечения бюджета файл не читается, но учитывается как непрочитанный. Вызывается из потоков обхода.
+     *
+     * @param key путь файла относительно каталога: от него зависит попадание в выборку
+     */
+    boolean take(Path file, String key) {
+        Stratum s = strata.computeIfAbsent(FileStatsCli.extOf(file), k -> new Stratum());
+        boolean first = s.seen.getAndIncrement() < MIN_PER_EXT;
+        if (!first && (mix(key.hashCode()) & 0xFFFFFFFFL) >= threshold) return false;
+        s.selected.incrementAndGet();
+        if (first) census.add(file);
+        return !expired();
+    }
+
+    /**
+     * Входит ли взятый файл в обязательную часть слоя.
+     */
+    boolean census(Path file) {
+        return census.contains(file);
+    }
+
+    // не тот же хэш, что у --shard: иначе выборка внутри шарда была бы с ним связана
+    private static int mix(int h) {
+        h ^= h >>> 15;
+        h *= 0x2C1B3C6D;
+        h ^= h >>> 12;
+        h *= 0x297A2D39;
+        return h ^ h >>> 15;
+    }
+
+    boolean expired() {
+        return budget && System.nanoTime() - deadline > 0;
+    }
+
+    /**
+     * Условие остановки обхода: бюджет времени истёк. Файлы, которые обход не успел найти, в итоги не входят.
+     */
+    boolean stopWalk() {
+        if (!expired()) return false;
+        walkStopped = true;
+        return true;
+    }
+
+    boolean walkStopped() {
+        return walkStopped;
+    }
+
+    /**
+     * Суммы по прочитанным файлам одного обработчика: итоги и число файлов обязательной части и суммы квадратов
+     * счётчиков остальных — для дисперсии. Не потокобезопасен.
+     */
+    static final class Moments {
+        // на расширение: METRICS сумм квадратов, METRICS итогов обязательной части, число её файлов
+        private static final int STRIDE = 2 * METRICS + 1;
+
+        private double[] sums = new double[16 * STRIDE];
+
+        void add(int extId, boolean census, long bytes, long lines, long nonEmpty, long comment, boolean binary) {
+            int base = extId * STRIDE;
+            if (base + STRIDE > sums.length) sums = Arrays.copyOf(sums, Math.max(sums.length * 2, base + STRIDE));
+            if (census) {
+                base += METRICS;
+                sums[base] += bytes;
+                sums[base + 1] += lines;
+                sums[base + 2] += nonEmpty;
+                sums[base + 3] += comment;
+                if (binary) sums[base + 4] += 1;
+                sums[base + METRICS] += 1;
+            } else {
+                sums[base] += (double) bytes * bytes;
+                sums[base + 1] += (double) lines * lines;
+                sums[base + 2] += (double) nonEmpty * nonEmpty;
+                sums[base + 3] += (double) comment * comment;
+                if (binary) sums[base + 4] += 1;
+            }
+        }
+
+        void mergeInto(Map<String, double[]> out, StatsAccumulator acc) {
+            for (int id = 0; id * STRIDE < sums.length && id < acc.size(); id++) {
+                double[] to = out.computeIfAbsent(acc.extName(id), k -> new double[STRIDE]);
+                for (int m = 0; m < STRIDE; m++) to[m] += sums[id * STRIDE + m];
+            }
+        }
+    }
+
+    /**
+     * Экстраполирует итоги выборки {@code sample} на все найденные файлы.
+     *
+     * @param moments суммы по расширениям (см. {@link Moments})
+     * @param out     сюда кладутся оценки по расширениям
+     * @return итоги по расширениям в том же виде, что и при полном обходе; у неоценённых слоёв — только число файлов
+     */
+    Map<String, Stats> extrapolate(Map<String, Stats> sample, Map<String, double[]> moments, Map<String, Estimate> out) {
+        Map<String, Stats> totals = new TreeMap<>();
+        for (Map.Entry<String, Stratum> e : strata.entrySet()) {
+            long found = e.getValue().seen.get();
+            Stats s = sample.get(e.getKey());
+            long n = s != null ? s.files.sum() : 0;
+            double[] mo = moments.getOrDefault(e.getKey(), new double[Moments.STRIDE]);
+            long[] sums = s != null
+                    ? new long[]{s.bytes.sum(), s.totalLines.sum(), s.nonEmptyLines.sum(), s.commentLines.sum(), s.binaryFiles.sum()}
+                    : new long[METRICS];
+            // обязательная часть (C) и выборка (S) из остальных rest файлов слоя
+            long nC = (long) mo[2 * METRICS];
+            long nS = n - nC;
+            long rest = found - nC;
+            // часть отобранных не прочитана (бюджет времени, ошибки): прочитанное — не случайная выборка, итог — их суммы
+            boolean allRead = n == e.getValue().selected.get();
+            boolean complete = allRead && !walkStopped;
+            boolean estimable = allRead ? rest == 0 || nS > 0 : n > 0;
+            long[] value = allRead ? new long[METRICS] : sums;
+            long[] ci = complete && estimable && (nS >= 2 || nS == rest) ? new long[METRICS] : null;
+            for (int m = 0; m < METRICS && estimable && allRead; m++) {
+                long sumC = (long) mo[METRICS + m];
+                long sumS = sums[m] - sumC;
+                if (nS == rest) {
+                    value[m] = sums[m];
+                    continue;
+                }
+                double mean = (double) sumS / nS;
+                value[m] = sumC + Math.round(mean * rest);
+                if (ci != null) {
+                    double variance = Math.max(0, (mo[m] - nS * mean * mean) / (nS - 1));
+                    ci[m] = Math.round(Z95 * rest * Math.sqrt((1 - (double) nS / rest) * variance / nS));
+                }
+            }
+            Stats t = new Stats();
+            t.files.add(found);
+            t.bytes.add(value[0]);
+            t.totalLines.add(value[1]);
+            t.nonEmptyLines.add(value[2]);
+            t.commentLines.add(value[3]);
+            t.binaryFiles.add(value[4]);
+            totals.put(e.getKey(), t);
+            out.put(e.getKey(), new Estimate(found, n, estimable, complete, ci));
+        }
+        return totals;
+    }
+}
@@ -0,0 +1,260 @@
+package org.example.filestats;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+/**
+ * Метрики одного прогона: счётчики обхода и обработки, время по фазам, глубина очереди
+ * и гистограмма времени обработки файла. Создаётся только при --progress или --metrics-out;
+ * без них вместо объекта передаётся {@code null} и горячие пути ничего не считают.
+ * <p>
+ * Счётчики — {@link LongAdder}, их можно читать на лету для строки прогресса;
+ * гистограммы ведутся в каждом обработчике отдельно и сливаются в конце.
+ */
+final class ScanMetrics {
+
+    enum Phase {walk, filter, process, merge, dedupe, cache, render}
+
+    private static final int MAX_FAILURES = 100;
+    private static final long SAMPLE_MILLIS = 100;
+    private static final int SAMPLES_PER_LINE = 5;
+
+    final LongAdder dirs = new LongAdder();
+    final LongAdder walked = new LongAdder();
+    final LongAdder filtered = new LongAdder();
+    final LongAdder read = new LongAdder();
+    final LongAdder cacheHits = new LongAdder();
+    final LongAdder failed = new LongAdder();
+    final LongAdder binary = new LongAdder();
+    final LongAdder bytes = new LongAdder();
+    // файлы, дочитанные целиком ради --dedupe
+    final LongAdder rehashed = new LongAdder();
+
+    private final LongAdder[] phases = new LongAdder[Phase.values().length];
+    private final Latency latency = new Latency();
+    private final List<String> failures = new ArrayList<>();
+    private final long started = System.nanoTime();
+
+    private volatile IntSupplier queueDepth;
+    private int queueCapacity;
+    private int queueMax;
+    private long queueSum;
+    private long queueSamples;
+
+    private ScheduledExecutorService sampler;
+    private PrintStream progress;
+    private int progressWidth;
+
+    ScanMetrics() {
+        for (int i = 0; i < phases.length; i++) phases[i] = new LongAdder();
+    }
+
+    void time(Phase phase, long nanos) {
+        phases[phase.ordinal()].add(nanos);
+    }
+
+    long nanos(Phase phase) {
+        return phases[phase.ordinal()].sum();
+    }
+
+    void fail(String file, String message) {
+        failed.increment();
+        synchronized (failures) {
+            if (failures.size() < MAX_FAILURES) failures.add(file + " -> " + message);
+        }
+    }
+
+    /**
+     * Источник текущей глубины очереди (в пачках); опрашивается фоновым потоком.
+     */
+    void queue(int capacity, IntSupplier depth) {
+        synchronized (this) {
+            queueCapacity = capacity;
+        }
+        queueDepth = depth;
+    }
+
+    synchronized void addLatency(Latency l) {
+        l.mergeInto(latency);
+    }
+
+    /**
+     * Запускает фоновый опрос очереди; при {@code progress != null} туда же периодически пишется строка прогресса.
+     */
+    void start(PrintStream progress) {
+        this.progress = progress;
+        sampler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "filestats-metrics");
+            t.setDaemon(true);
+            return t;
+        });
+        long[] tick = {0};
+        sampler.scheduleAtFixedRate(() -> {
+            sample();
+            if (progress != null && ++tick[0] % SAMPLES_PER_LINE == 0) printProgress(false);
+        }, SAMPLE_MILLIS, SAMPLE_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    void stop() throws InterruptedException {
+        if (sampler == null) return;
+        sampler.shutdownNow();
+        sampler.awaitTermination(1, TimeUnit.SECONDS);
+        sampler = null;
+        queueDepth = null;
+        if (progress != null) printProgress(true);
+    }
+
+    private synchronized void sample() {
+        IntSupplier depth = queueDepth;
+        if (depth == null) return;
+        int d = depth.getAsInt();
+        queueMax = Math.max(queueMax, d);
+        queueSum += d;
+        queueSamples++;
+    }
+
+    private synchronized void printProgress(boolean last) {
+        double seconds = (System.nanoTime() - started) / 1e9;
+        double mb = bytes.sum() / (1024.0 * 1024.0);
+        StringBuilder line = new StringBuilder(String.format(Locale.ROOT,
+                "Файлов: найдено %d, отфильтровано %d, прочитано %d, из кэша %d, ошибок %d | %.1f МБ, %.1f МБ/с",
+                walked.sum(), filtered.sum(), read.sum(), cacheHits.sum(), failed.sum(), mb, seconds > 0 ? mb / seconds : 0));
+        IntSupplier depth = queueDepth;
+        if (depth != null) line.append(" | очередь ").append(depth.getAsInt()).append('/').append(queueCapacity);
+        line.append(String.format(Locale.ROOT, " | %.1f с", seconds));
+        int width = line.length();
+        for (int i = width; i < progressWidth; i++) line.append(' ');
+        progressWidth = width;
+        progress.print('\r');
+        progress.print(line);
+        if (last) progress.println();
+        progress.flush();
+    }
+
+    void writeJson(Writer out) throws IOException {
+        long total = System.nanoTime() - started;
+        long processNanos = nanos(Phase.process);
+        double processSeconds = processNanos > 0 ? processNanos / 1e9 : total / 1e9;
+        try (JsonGenerator g = ReportWriter.jsonGenerator(out, false)) {
+            g.writeStartObject();
+            g.writeObjectFieldStart("counters");
+            g.writeNumberField("dirs", dirs.sum());
+            g.writeNumberField("walked", walked.sum());
+            g.writeNumberField("filtered", filtered.sum());
+            g.writeNumberField("read", read.sum());
+            g.writeNumberField("cacheHits", cacheHits.sum());
+            g.writeNumberField("failed", failed.sum());
+            g.writeNumberField("binary", binary.sum());
+            g.writeNumberField("bytes", bytes.sum());
+            g.writeNumberField("rehashed", rehashed.sum());
+            g.writeEndObject();
+
+            g.writeObjectFieldStart("throughput");
+            g.writeNumberField("filesPerSecond", Math.round((read.sum() + cacheHits.sum()) / processSeconds));
+            g.writeNumberField("bytesPerSecond", Math.round(bytes.sum() / processSeconds));
+            g.writeEndObject();
+
+            // filter — суммарное время фильтров во всех потоках обхода, остальные фазы — по часам
+            g.writeObjectFieldStart("phasesMillis");
+            for (Phase p : Phase.values()) g.writeNumberField(p.name(), nanos(p) / 1_000_000);
+            g.writeNumberField("total", total / 1_000_000);
+            g.writeEndObject();
+
+            synchronized (this) {
+                g.writeObjectFieldStart("queue");
+                g.writeNumberField("capacity", queueCapacity);
+                g.writeNumberField("max", queueMax);
+                g.writeNumberField("mean", queueSamples > 0 ? Math.round(queueSum * 10.0 / queueSamples) / 10.0 : 0);
+                g.writeNumberField("samples", queueSamples);
+                g.writeEndObject();
+
+                g.writeFieldName("latencyNanos");
+                latency.writeJson(g);
+            }
+
+            g.writeArrayFieldStart("failures");
+            synchronized (failures) {
+                for (String f : failures) g.writeString(f);
+            }
+            g.writeEndArray();
+            g.writeEndObject();
+        }
+        out.write(System.lineSeparator());
+        out.flush();
+    }
+
+    /**
+     * Гистограмма времени обработки файла по степеням двойки наносекунд: в корзину {@code i}
+     * попадают значения из {@code [2^(i-1), 2^i)}. Перцентили оцениваются верхней границей корзины,
+     * то есть с точностью до двух раз. Не потокобезопасна — у каждого обработчика своя.
+     */
+    static final class Latency {
+        private final long[] buckets = new long[64];
+        private long count;
+        private long max;
+
+        void record(long nanos) {
+            buckets[64 - Long.numberOfLeadingZeros(Math.max(0, nanos))]++;
+            count++;
+            if (nanos > max) max = nanos;
+        }
+
+        long count() {
+            return count;
+        }
+
+        void mergeInto(Latency other) {
+            for (int i = 0; i < buckets.length; i++) other.buckets[i] += buckets[i];
+            other.count += count;
+            other.max = Math.max(other.max, max);
+        }
+
+        /**
+         * Верхняя граница корзины, в которую попадает перцентиль {@code p} (0..1).
+         */
+        long percentile(double p) {
+            if (count == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(p * count));
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank) return Math.min(max, upperBound(i));
+            }
+            return max;
+        }
+
+        private static long upperBound(int bucket) {
+            return bucket >= 63 ? Long.MAX_VALUE : 1L << bucket;
+        }
+
+        void writeJson(JsonGenerator g) throws IOException {
+            g.writeStartObject();
+            g.writeNumberField("count", count);
+            g.writeNumberField("p50", percentile(0.5));
+            g.writeNumberField("p90", percentile(0.9));
+            g.writeNumberField("p99", percentile(0.99));
+            g.writeNumberField("max", max);
+            g.writeArrayFieldStart("buckets");
+            for (int i = 0; i < buckets.length; i++) {
+                if (buckets[i] == 0) continue;
+                g.writeStartObject();
+                g.writeNumberField("lt", upperBound(i));
+                g.writeNumberField("count", buckets[i]);
+                g.writeEndObject();
+            }
+            g.writeEndArray();
+            g.writeEndObject();
+        }
+    }
+}
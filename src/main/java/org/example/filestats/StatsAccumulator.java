@@ -0,0 +1,132 @@
+package org.example.filestats;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Накопитель статистики одного потока: расширения интернируются в небольшие целые id,
+ * счётчики лежат в плоском {@code long[]} по {@link #WIDTH} значений на расширение.
+ * Не потокобезопасен; накопители потоков сливаются в общий результат один раз в конце.
+ */
+final class StatsAccumulator {
+
+    static final int FILES = 0, BYTES = 1, LINES = 2, NON_EMPTY = 3, COMMENT = 4, BINARY = 5;
+    static final int WIDTH = 6;
+
+    static final String NO_EXT = "(noext)";
+
+    private String[] names = new String[16];
+    private int[] hashes = new int[16];
+    private long[] counters = new long[16 * WIDTH];
+    private int size;
+
+    // открытая адресация: слот -> id + 1, 0 — пусто
+    private int[] table = new int[32];
+
+    private int noExtId = -1;
+
+    /**
+     * id расширения имени файла (без учёта регистра); для ASCII-расширений строка не создаётся.
+     */
+    int extIdOf(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        int len = fileName.length();
+        if (dot <= 0 || dot == len - 1) {
+            if (noExtId < 0) noExtId = intern(NO_EXT);
+            return noExtId;
+        }
+        int h = 0;
+        for (int i = dot + 1; i < len; i++) {
+            char c = fileName.charAt(i);
+            if (c >= 0x80) return intern(fileName.substring(dot + 1).toLowerCase(Locale.ROOT));
+            if (c >= 'A' && c <= 'Z') c += 'a' - 'A';
+            h = 31 * h + c;
+        }
+        int mask = table.length - 1;
+        for (int slot = mix(h) & mask; ; slot = (slot + 1) & mask) {
+            int id = table[slot] - 1;
+            if (id < 0) return add(fileName.substring(dot + 1).toLowerCase(Locale.ROOT), h, slot);
+            if (hashes[id] == h && names[id].length() == len - dot - 1
+                    && names[id].regionMatches(true, 0, fileName, dot + 1, len - dot - 1)) {
+                return id;
+            }
+        }
+    }
+
+    int intern(String ext) {
+        int h = ext.hashCode();
+        int mask = table.length - 1;
+        for (int slot = mix(h) & mask; ; slot = (slot + 1) & mask) {
+            int id = table[slot] - 1;
+            if (id < 0) return add(ext, h, slot);
+            if (hashes[id] == h && names[id].equals(ext)) return id;
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    String extName(int id) {
+        return names[id];
+    }
+
+    void add(int id, long bytes, long totalLines, long nonEmptyLines, long commentLines) {
+        int base = id * WIDTH;
+        counters[base + FILES]++;
+        counters[base + BYTES] += bytes;
+        counters[base + LINES] += totalLines;
+        counters[base + NON_EMPTY] += nonEmptyLines;
+        counters[base + COMMENT] += commentLines;
+    }
+
+    void addBinary(int id, long bytes) {
+        int base = id * WIDTH;
+        counters[base + FILES]++;
+        counters[base + BYTES] += bytes;
+        counters[base + BINARY]++;
+    }
+
+    void mergeInto(Map<String, FileStatsCli.Stats> out) {
+        for (int id = 0; id < size; id++) {
+            int base = id * WIDTH;
+            FileStatsCli.Stats st = out.computeIfAbsent(names[id], k -> new FileStatsCli.Stats());
+            st.files.add(counters[base + FILES]);
+            st.bytes.add(counters[base + BYTES]);
+            st.totalLines.add(counters[base + LINES]);
+            st.nonEmptyLines.add(counters[base + NON_EMPTY]);
+            st.commentLines.add(counters[base + COMMENT]);
+            st.binaryFiles.add(counters[base + BINARY]);
+        }
+    }
+
+    private int add(String ext, int h, int slot) {
+        if (size == names.length) {
+            names = Arrays.copyOf(names, size * 2);
+            hashes = Arrays.copyOf(hashes, size * 2);
+            counters = Arrays.copyOf(counters, size * 2 * WIDTH);
+        }
+        int id = size++;
+        names[id] = ext;
+        hashes[id] = h;
+        table[slot] = id + 1;
+        if (size * 2 > table.length) rehash();
+        return id;
+    }
+
+    private void rehash() {
+        table = new int[table.length * 2];
+        int mask = table.length - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = mix(hashes[id]) & mask;
+            while (table[slot] != 0) slot = (slot + 1) & mask;
+            table[slot] = id + 1;
+        }
+    }
+
+    private static int mix(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,279 @@
+package org.example.filestats;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Кэш статистики по файлам между запусками. Запись считается актуальной, если совпадают
+ * относительный путь, размер, время изменения и ключ файла (inode). При сохранении пишутся только
+ * файлы, встреченные в текущем запуске, так что удалённые файлы из кэша выпадают.
+ * <p>
+ * Формат: magic, версия, контрольная сумма описаний языков, словарь расширений, записи с числами в varint
+ * и хэшем содержимого (если он считался для --dedupe), CRC32 в конце. Повреждённый или несовместимый файл кэша
+ * игнорируется; кэш другой версии или посчитанный с другими описаниями языков молча пересоздаётся.
+ */
+final class StatsCache {
+
+    private static final int MAGIC = 0x46535443; // "FSTC"
+    // растёт и при изменении того, как считаются записи (например, распознавание двоичных файлов в LineScanner.sniff)
+    private static final int VERSION = 5;
+
+    static final class Entry {
+        final long size;
+        final long mtime;
+        final int fileKey;
+        final String ext;
+        final boolean binary;
+        final long totalLines;
+        final long nonEmptyLines;
+        final long commentLines;
+        // хэш содержимого, если файл читался с --dedupe, иначе null
+        final ContentHash.Digest digest;
+
+        Entry(long size, long mtime, int fileKey, String ext, boolean binary, long totalLines, long nonEmptyLines, long commentLines,
+              ContentHash.Digest digest) {
+            this.size = size;
+            this.mtime = mtime;
+            this.fileKey = fileKey;
+            this.ext = ext;
+            this.binary = binary;
+            this.totalLines = totalLines;
+            this.nonEmptyLines = nonEmptyLines;
+            this.commentLines = commentLines;
+            this.digest = digest;
+        }
+
+        boolean matches(long size, long mtime, int fileKey) {
+            return this.size == size && this.mtime == mtime && this.fileKey == fileKey;
+        }
+
+        boolean sameStats(Entry o) {
+            return size == o.size && ext.equals(o.ext) && binary == o.binary && totalLines == o.totalLines
+                    && nonEmptyLines == o.nonEmptyLines && commentLines == o.commentLines;
+        }
+    }
+
+    private final Path file;
+    private final long languages;
+    private final Map<String, Entry> previous;
+    private final Map<String, Entry> current = new ConcurrentHashMap<>();
+
+    private StatsCache(Path file, long languages, Map<String, Entry> previous) {
+        this.file = file;
+        this.languages = languages;
+        this.previous = previous;
+    }
+
+    /**
+     * @param languages {@link Languages#fingerprint()} текущих описаний языков
+     * @param err       сюда — о повреждённом кэше
+     */
+    static StatsCache load(Path file, long languages, PrintStream err) {
+        Map<String, Entry> entries = new HashMap<>();
+        try (CheckedInputStream checked = new CheckedInputStream(
+                new BufferedInputStream(Files.newInputStream(file), 64 * 1024), new CRC32());
+             DataInputStream in = new DataInputStream(checked)) {
+            if (in.readInt() != MAGIC) throw new IOException("неизвестный формат");
+            if (in.readInt() != VERSION || in.readLong() != languages) return empty(file, languages);
+            long extCount = readVarLong(in);
+            if (extCount > 0xFFFF) throw new IOException("слишком много расширений");
+            String[] exts = new String[(int) extCount];
+            for (int i = 0; i < extCount; i++) exts[i] = in.readUTF();
+            long count = readVarLong(in);
+            for (long i = 0; i < count; i++) {
+                String rel = in.readUTF();
+                long size = readVarLong(in);
+                long mtime = in.readLong();
+                int fileKey = in.readInt();
+                String ext = exts[(int) readVarLong(in)];
+                boolean binary = in.readBoolean();
+                long totalLines = readVarLong(in), nonEmptyLines = readVarLong(in), commentLines = readVarLong(in);
+                entries.put(rel, new Entry(size, mtime, fileKey, ext, binary, totalLines, nonEmptyLines, commentLines, readDigest(in)));
+            }
+            long expected = checked.getChecksum().getValue();
+            if (in.readLong() != expected) throw new IOException("неверная контрольная сумма");
+        } catch (NoSuchFileException e) {
+            return empty(file, languages);
+        } catch (IOException | RuntimeException e) {
+            err.println("Кэш повреждён, будет пересоздан: " + file + " -> " + e.getMessage());
+            return empty(file, languages);
+        }
+        return new StatsCache(file, languages, entries);
+    }
+
+    /**
+     * Пустой кэш; с {@code file == null} живёт только в памяти и не сохраняется.
+     */
+    static StatsCache empty(Path file, long languages) {
+        return new StatsCache(file, languages, Map.of());
+    }
+
+    /**
+     * Кэш для следующего прогона в том же процессе: записи этого прогона поверх прежних.
+     * Прежние записи не выбрасываются — прогон с фильтром видит только часть файлов.
+     */
+    StatsCache carryOver(Path file) {
+        Map<String, Entry> entries = new HashMap<>(previous);
+        entries.putAll(current);
+        return new StatsCache(file, languages, entries);
+    }
+
+    static long mtimeOf(BasicFileAttributes attrs) {
+        return attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+    }
+
+    static int fileKeyOf(BasicFileAttributes attrs) {
+        Object key = attrs.fileKey();
+        return key == null ? 0 : key.hashCode();
+    }
+
+    Entry lookup(String rel, BasicFileAttributes attrs) {
+        Entry e = previous.get(rel);
+        if (e == null || !e.matches(attrs.size(), mtimeOf(attrs), fileKeyOf(attrs))) return null;
+        current.put(rel, e);
+        return e;
+    }
+
+    void put(String rel, Entry e) {
+        current.put(rel, e);
+    }
+
+    /**
+     * Запись этого прогона для файла или {@code null}.
+     */
+    Entry get(String rel) {
+        return current.get(rel);
+    }
+
+    /**
+     * Убирает из записей этого прогона файл {@code rel}, а с {@code tree} — и всё под каталогом {@code rel}.
+     *
+     * @return убранные записи по путям
+     */
+    Map<String, Entry> remove(String rel, boolean tree) {
+        Map<String, Entry> removed = new HashMap<>();
+        Entry e = current.remove(rel);
+        if (e != null) removed.put(rel, e);
+        if (tree) {
+            String prefix = rel + "/";
+            for (Iterator<Map.Entry<String, Entry>> it = current.entrySet().iterator(); it.hasNext(); ) {
+                Map.Entry<String, Entry> c = it.next();
+                if (c.getKey().startsWith(prefix)) {
+                    removed.put(c.getKey(), c.getValue());
+                    it.remove();
+                }
+            }
+        }
+        return removed;
+    }
+
+    void save() throws IOException {
+        Path dir = file.toAbsolutePath().getParent();
+        if (dir != null) Files.createDirectories(dir);
+        Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+        try {
+            Map<String, Integer> extIds = new HashMap<>();
+            List<String> exts = new ArrayList<>();
+            for (Entry e : current.values()) {
+                extIds.computeIfAbsent(e.ext, k -> {
+                    exts.add(k);
+                    return exts.size() - 1;
+                });
+            }
+            CheckedOutputStream checked = new CheckedOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(tmp), 64 * 1024), new CRC32());
+            try (DataOutputStream out = new DataOutputStream(checked)) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(languages);
+                writeVarLong(out, exts.size());
+                for (String ext : exts) out.writeUTF(ext);
+                writeVarLong(out, current.size());
+                for (Map.Entry<String, Entry> me : current.entrySet()) {
+                    Entry e = me.getValue();
+                    out.writeUTF(me.getKey());
+                    writeVarLong(out, e.size);
+                    out.writeLong(e.mtime);
+                    out.writeInt(e.fileKey);
+                    writeVarLong(out, extIds.get(e.ext));
+                    out.writeBoolean(e.binary);
+                    writeVarLong(out, e.totalLines);
+                    writeVarLong(out, e.nonEmptyLines);
+                    writeVarLong(out, e.commentLines);
+                    writeDigest(out, e.digest);
+                }
+                out.flush();
+                out.writeLong(checked.getChecksum().getValue());
+            }
+            try {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    // 0 — хэша нет, 1 — только по первым байтам, 2 — ещё и по всему файлу
+    private static void writeDigest(DataOutputStream out, ContentHash.Digest d) throws IOException {
+        if (d == null) {
+            out.writeByte(0);
+            return;
+        }
+        out.writeByte(d.full ? 2 : 1);
+        out.writeLong(d.partialHi);
+        out.writeLong(d.partialLo);
+        if (d.full) {
+            out.writeLong(d.fullHi);
+            out.writeLong(d.fullLo);
+        }
+    }
+
+    private static ContentHash.Digest readDigest(DataInputStream in) throws IOException {
+        int kind = in.readUnsignedByte();
+        if (kind == 0) return null;
+        if (kind > 2) throw new IOException("некорректный хэш");
+        long partialHi = in.readLong(), partialLo = in.readLong();
+        return kind == 2 ? new ContentHash.Digest(partialHi, partialLo, true, in.readLong(), in.readLong())
+                : new ContentHash.Digest(partialHi, partialLo, false, 0, 0);
+    }
+
+    static void writeVarLong(DataOutputStream out, long v) throws IOException {
+        while ((v & ~0x7FL) != 0) {
+            out.writeByte((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.writeByte((int) v);
+    }
+
+    static long readVarLong(DataInputStream in) throws IOException {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            v |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return v;
+        }
+        throw new IOException("некорректное число");
+    }
+}
@@ -0,0 +1,91 @@
+package org.example.filestats;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * N самых больших файлов: мин-куча фиксированной ёмкости по размеру, в корне — наименьший из отобранных.
+ * Файл, который меньше корня заполненной кучи, отсекается одним сравнением. При равных размерах выше
+ * файл с меньшим выводимым путём (его строит {@code name}, только при равенстве), так что отбор не зависит
+ * от порядка обхода и совпадает с порядком в отчёте. Не потокобезопасен.
+ */
+final class TopFiles {
+
+    private final long[] sizes;
+    private final Path[] files;
+    private final Function<Path, String> name;
+    private int n;
+
+    /**
+     * @param name путь файла в отчёте
+     */
+    TopFiles(int limit, Function<Path, String> name) {
+        sizes = new long[limit];
+        files = new Path[limit];
+        this.name = name;
+    }
+
+    void offer(long size, Path file) {
+        if (n < sizes.length) {
+            int i = n++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!below(size, file, sizes[parent], files[parent])) break;
+                sizes[i] = sizes[parent];
+                files[i] = files[parent];
+                i = parent;
+            }
+            sizes[i] = size;
+            files[i] = file;
+        } else if (n > 0 && below(sizes[0], files[0], size, file)) {
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= n) break;
+                if (child + 1 < n && below(sizes[child + 1], files[child + 1], sizes[child], files[child])) child++;
+                if (!below(sizes[child], files[child], size, file)) break;
+                sizes[i] = sizes[child];
+                files[i] = files[child];
+                i = child;
+            }
+            sizes[i] = size;
+            files[i] = file;
+        }
+    }
+
+    // a ниже b в итоговом порядке: меньше размер, при равном — больше выводимый путь
+    private boolean below(long sizeA, Path a, long sizeB, Path b) {
+        return sizeA < sizeB || sizeA == sizeB && name.apply(a).compareTo(name.apply(b)) > 0;
+    }
+
+    void mergeInto(TopFiles other) {
+        for (int i = 0; i < n; i++) other.offer(sizes[i], files[i]);
+    }
+
+    /**
+     * Отобранные файлы по убыванию размера (при равенстве — по выводимому пути).
+     */
+    List<Entry> sorted() {
+        List<Entry> out = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) out.add(new Entry(name.apply(files[i]), sizes[i]));
+        sort(out);
+        return out;
+    }
+
+    static void sort(List<Entry> entries) {
+        entries.sort(Comparator.comparingLong((Entry e) -> -e.bytes).thenComparing(e -> e.path));
+    }
+
+    static final class Entry {
+        final String path;
+        final long bytes;
+
+        Entry(String path, long bytes) {
+            this.path = path;
+            this.bytes = bytes;
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package org.example.filestats;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.BooleanSupplier;
+import java.util.function.Predicate;
+
+/**
+ * Параллельно обходит дерево каталогов на {@link ForkJoinPool}: каждый каталог — отдельная задача,
+ * подкаталоги перечисляются одновременно и перераспределяются между потоками через work-stealing.
+ * Подходящие файлы отдаются в {@link Sink} пачками по мере обнаружения, без накопления списка путей:
+ * пачка собирается в пределах одного каталога и отправляется, как только заполнится или каталог закончится.
+ * Все фильтры применяются один раз на путь, каталоги, исключённые через .gitignore, не обходятся вовсе.
+ * Символические ссылки разыменовываются, циклы отсекаются по ключу файла среди предков.
+ * Если передан {@link ScanMetrics}, в нём считаются каталоги, найденные и отфильтрованные файлы
+ * и время, потраченное на фильтры. Сообщения о нечитаемых каталогах и файлах пишутся в {@code err}.
+ * Если задано условие {@code stop}, обход прекращается, как только оно выполнится: оставшиеся записи
+ * не читаются и не отдаются.
+ */
+final class TreeWalker {
+
+    /**
+     * Вызывается одновременно из нескольких потоков обхода.
+     */
+    interface Sink {
+        void accept(Path[] batch) throws InterruptedException;
+    }
+
+    private final Path root;
+    private final int maxDepth;
+    private final Predicate<Path> filter;
+    private final GitIgnore gitIgnore;
+    private final int parallelism;
+    private final int batchSize;
+    private final ScanMetrics metrics;
+    private final PrintStream err;
+    private final BooleanSupplier stop;
+
+    private volatile boolean cancelled;
+
+    TreeWalker(Path root, int maxDepth, Predicate<Path> filter, GitIgnore gitIgnore, int parallelism, int batchSize,
+               ScanMetrics metrics, PrintStream err) {
+        this(root, maxDepth, filter, gitIgnore, parallelism, batchSize, metrics, err, null);
+    }
+
+    /**
+     * @param stop условие остановки обхода, проверяется перед каждой записью каталога; {@code null} — без него
+     */
+    TreeWalker(Path root, int maxDepth, Predicate<Path> filter, GitIgnore gitIgnore, int parallelism, int batchSize,
+               ScanMetrics metrics, PrintStream err, BooleanSupplier stop) {
+        this.root = root;
+        this.maxDepth = maxDepth;
+        this.filter = filter;
+        this.gitIgnore = gitIgnore;
+        this.parallelism = Math.max(1, parallelism);
+        this.batchSize = Math.max(1, batchSize);
+        this.metrics = metrics;
+        this.err = err;
+        this.stop = stop;
+    }
+
+    void walk(Sink sink) throws IOException, InterruptedException {
+        BasicFileAttributes rootAttrs = Files.readAttributes(root, BasicFileAttributes.class);
+        ForkJoinPool fj = new ForkJoinPool(parallelism);
+        try {
+            fj.invoke(new DirTask(sink, root, 0, new String[1], gitIgnore, new Ancestor(rootAttrs.fileKey(), null)));
+        } catch (RuntimeException e) {
+            if (cancelled) throw new InterruptedException("обход прерван");
+            throw e;
+        } finally {
+            fj.shutdownNow();
+        }
+    }
+
+    private static final class Ancestor {
+        final Object key;
+        final Ancestor parent;
+
+        Ancestor(Object key, Ancestor parent) {
+            this.key = key;
+            this.parent = parent;
+        }
+
+        boolean contains(Object k) {
+            if (k == null) return false;
+            for (Ancestor a = this; a != null; a = a.parent) {
+                if (k.equals(a.key)) return true;
+            }
+            return false;
+        }
+    }
+
+    // задачи не сериализуются
+    @SuppressWarnings("serial")
+    private final class DirTask extends RecursiveAction {
+        private final Sink sink;
+        private final Path dir;
+        private final int depth;
+        // сегменты пути каталога относительно корня; последний слот — под имя текущей записи
+        private final String[] segs;
+        private final GitIgnore ignore;
+        private final Ancestor ancestors;
+
+        DirTask(Sink sink, Path dir, int depth, String[] segs, GitIgnore ignore, Ancestor ancestors) {
+            this.sink = sink;
+            this.dir = dir;
+            this.depth = depth;
+            this.segs = segs;
+            this.ignore = ignore;
+            this.ancestors = ancestors;
+        }
+
+        @Override
+        protected void compute() {
+            List<DirTask> forked = new ArrayList<>();
+            try {
+                list(forked);
+            } catch (InterruptedException e) {
+                cancelled = true;
+                throw new IllegalStateException(e);
+            }
+            for (int i = forked.size() - 1; i >= 0; i--) {
+                forked.get(i).join();
+            }
+        }
+
+        private void list(List<DirTask> forked) throws InterruptedException {
+            Path[] batch = null;
+            int n = 0;
+            if (metrics != null) metrics.dirs.increment();
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+                for (Path entry : entries) {
+                    if (cancelled || stop != null && stop.getAsBoolean()) break;
+                    BasicFileAttributes attrs = attributesOf(entry);
+                    if (attrs == null) continue;
+                    String name = entry.getFileName().toString();
+                    segs[depth] = name;
+                    if (attrs.isDirectory()) {
+                        // каталоги на границе maxDepth не обходятся и не считаются файлами
+                        if (depth + 1 >= maxDepth) continue;
+                        if (ignore != null && (name.equals(".git") || ignore.ignored(segs, depth + 1, true))) continue;
+                        if (ancestors.contains(attrs.fileKey())) {
+                            err.println("Не удалось прочитать: " + root.relativize(entry) + " -> цикл символических ссылок");
+                            continue;
+                        }
+                        String[] childSegs = Arrays.copyOf(segs, depth + 2);
+                        GitIgnore childIgnore = ignore != null ? ignore.enter(entry, depth + 1, err) : null;
+                        DirTask t = new DirTask(sink, entry, depth + 1, childSegs, childIgnore,
+                                new Ancestor(attrs.fileKey(), ancestors));
+                        t.fork();
+                        forked.add(t);
+                    } else {
+                        if (!accepts(entry)) continue;
+                        if (batch == null) batch = new Path[batchSize];
+                        batch[n++] = entry;
+                        if (n == batchSize) {
+                            sink.accept(batch);
+                            batch = null;
+                            n = 0;
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                err.println("Не удалось прочитать: " + root.relativize(dir) + " -> " + e.getMessage());
+            } catch (DirectoryIteratorException e) {
+                // ошибка посреди чтения каталога: уже найденное остаётся, обход идёт дальше
+                err.println("Не удалось прочитать: " + root.relativize(dir) + " -> " + e.getCause().getMessage());
+            }
+            if (n > 0) sink.accept(Arrays.copyOf(batch, n));
+        }
+
+        private boolean accepts(Path entry) {
+            if (metrics == null) return included(entry);
+            metrics.walked.increment();
+            long t0 = System.nanoTime();
+            boolean ok = included(entry);
+            metrics.time(ScanMetrics.Phase.filter, System.nanoTime() - t0);
+            if (!ok) metrics.filtered.increment();
+            return ok;
+        }
+
+        // segs[depth] уже содержит имя записи
+        private boolean included(Path entry) {
+            return (ignore == null || !ignore.ignored(segs, depth + 1, false)) && filter.test(entry);
+        }
+
+        private BasicFileAttributes attributesOf(Path entry) {
+            try {
+                return Files.readAttributes(entry, BasicFileAttributes.class);
+            } catch (IOException e) {
+                // битая символическая ссылка: учитываем саму ссылку, как Files.walk
+                try {
+                    return Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                } catch (IOException e2) {
+                    err.println("Не удалось прочитать: " + root.relativize(entry) + " -> " + e2.getMessage());
+                    return null;
+                }
+            }
+        }
+    }
+}
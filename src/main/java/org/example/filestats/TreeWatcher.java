@@ -0,0 +1,233 @@
+package org.example.filestats;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/**
+ * Следит за деревом каталогов через {@link WatchService} для --watch. Каталоги регистрируются по тем же правилам,
+ * что и в {@link TreeWalker} (глубина, .gitignore), новые — по мере появления вместе с поддеревом.
+ * События копятся, пока не наступит затишье, и отдаются пачкой изменившихся путей; переполнение очереди
+ * событий, правка .gitignore или каталог, который не удалось отследить, требуют полного пересчёта.
+ */
+final class TreeWatcher implements Closeable {
+
+    // пачка собирается не дольше стольких интервалов затишья, даже если события не прекращаются
+    private static final int MAX_DEBOUNCE_ROUNDS = 10;
+
+    static final class Changes {
+        final Set<Path> paths;
+        final boolean rescan;
+
+        Changes(Set<Path> paths, boolean rescan) {
+            this.paths = paths;
+            this.rescan = rescan;
+        }
+    }
+
+    private final Path root;
+    private final int maxDepth;
+    private final Predicate<Path> filter;
+    private final GitIgnore gitIgnore;
+    // правила для записей каталога: .gitignore каждого каталога читается один раз, до правки любого .gitignore
+    private final Map<Path, GitIgnore> rules = new HashMap<>();
+    private final WatchService ws;
+    private final Map<WatchKey, Path> keys = new HashMap<>();
+    // каталоги, когда-либо зарегистрированные; удалённые остаются — это лишь лишняя проверка
+    private final Set<Path> dirs = new HashSet<>();
+    // часть поддерева не отслеживается (например, исчерпан лимит inotify)
+    private boolean incomplete;
+
+    TreeWatcher(Path root, int maxDepth, Predicate<Path> filter, GitIgnore gitIgnore, PrintStream err) throws IOException {
+        this.root = root;
+        this.maxDepth = maxDepth;
+        this.filter = filter;
+        this.gitIgnore = gitIgnore;
+        if (gitIgnore != null) rules.put(root, gitIgnore);
+        this.ws = root.getFileSystem().newWatchService();
+        register(root, null, err);
+    }
+
+    /**
+     * Отслеживается ли всё дерево: если нет, изменения в части каталогов не будут замечены.
+     */
+    boolean complete() {
+        return !incomplete;
+    }
+
+    /**
+     * Ждёт изменений и собирает их до затишья в {@code quietMillis}; сообщения — в {@code err}.
+     *
+     * @return изменения или {@code null}, если корень больше не отслеживается (удалён)
+     */
+    Changes next(long quietMillis, PrintStream err) throws InterruptedException {
+        return collect(ws.take(), quietMillis, err);
+    }
+
+    /**
+     * Изменения, о которых уже пришли события, без ожидания; сообщения — в {@code err}.
+     *
+     * @return изменения (возможно, пустые) или {@code null}, если корень больше не отслеживается
+     */
+    Changes poll(PrintStream err) {
+        try {
+            return collect(ws.poll(), 0, err);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new Changes(Set.of(), true);
+        }
+    }
+
+    // quietMillis == 0 — забрать только то, что уже в очереди
+    private Changes collect(WatchKey key, long quietMillis, PrintStream err) throws InterruptedException {
+        Set<Path> paths = new LinkedHashSet<>();
+        boolean rescan = false;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(quietMillis * MAX_DEBOUNCE_ROUNDS);
+        while (key != null) {
+            Path dir = keys.get(key);
+            for (WatchEvent<?> ev : key.pollEvents()) {
+                if (ev.kind() == OVERFLOW) {
+                    rescan = true;
+                    continue;
+                }
+                if (dir == null) continue;
+                Path p = dir.resolve((Path) ev.context());
+                if (gitIgnore != null && p.getFileName().toString().equals(".gitignore")) {
+                    rescan = true;
+                    rules.clear();
+                    rules.put(root, GitIgnore.load(root, err));
+                }
+                boolean isDir = Files.isDirectory(p);
+                if (ev.kind() == ENTRY_MODIFY && isDir) continue;
+                paths.add(p);
+                if (ev.kind() == ENTRY_CREATE && isDir && depthOf(p) < maxDepth && !ignored(p, true, err)) {
+                    // файлы, появившиеся до регистрации, событий уже не дадут
+                    register(p, paths, err);
+                }
+            }
+            if (!key.reset()) {
+                keys.remove(key);
+                if (root.equals(dir)) return null;
+            }
+            if (quietMillis == 0) {
+                key = ws.poll();
+                continue;
+            }
+            long left = deadline - System.nanoTime();
+            if (left <= 0) break;
+            key = ws.poll(Math.min(TimeUnit.NANOSECONDS.toMillis(left), quietMillis), TimeUnit.MILLISECONDS);
+        }
+        if (incomplete) {
+            incomplete = false;
+            rescan = true;
+        }
+        if (rescan) register(root, null, err);
+        return new Changes(paths, rescan);
+    }
+
+    /**
+     * Был ли путь отслеживаемым каталогом (в том числе уже удалённым).
+     */
+    boolean knownDir(Path p) {
+        return dirs.contains(p);
+    }
+
+    /**
+     * Попадает ли файл в статистику при тех же опциях обхода; о нечитаемых .gitignore — в {@code err}.
+     */
+    boolean included(Path file, PrintStream err) {
+        return depthOf(file) <= maxDepth && !ignored(file, false, err) && filter.test(file);
+    }
+
+    @Override
+    public void close() throws IOException {
+        ws.close();
+    }
+
+    private int depthOf(Path p) {
+        return root.relativize(p).getNameCount();
+    }
+
+    // как в TreeWalker: правила вложенных .gitignore подключаются по цепочке каталогов от корня
+    private boolean ignored(Path p, boolean isDir, PrintStream err) {
+        if (gitIgnore == null) return false;
+        Path rel = root.relativize(p);
+        int n = rel.getNameCount();
+        String[] segs = new String[n];
+        for (int i = 0; i < n; i++) segs[i] = rel.getName(i).toString();
+        Path dir = root;
+        for (int i = 0; i < n; i++) {
+            boolean last = i == n - 1;
+            boolean d = !last || isDir;
+            if (d && segs[i].equals(".git")) return true;
+            if (rulesOf(dir, i, err).ignored(segs, i + 1, d)) return true;
+            if (!last) dir = dir.resolve(segs[i]);
+        }
+        return false;
+    }
+
+    private GitIgnore rulesOf(Path dir, int depth, PrintStream err) {
+        GitIgnore g = rules.get(dir);
+        if (g == null) {
+            g = rulesOf(dir.getParent(), depth - 1, err).enter(dir, depth, err);
+            rules.put(dir, g);
+        }
+        return g;
+    }
+
+    /**
+     * Регистрирует каталог с подкаталогами; файлы поддерева, если {@code found != null}, добавляются туда.
+     */
+    private void register(Path start, Set<Path> found, PrintStream err) {
+        try {
+            Files.walkFileTree(start, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path d, BasicFileAttributes attrs) throws IOException {
+                    if (!d.equals(root) && (depthOf(d) >= maxDepth || ignored(d, true, err))) return FileVisitResult.SKIP_SUBTREE;
+                    keys.put(d.register(ws, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), d);
+                    dirs.add(d);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path f, BasicFileAttributes attrs) {
+                    if (found != null) found.add(f);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path f, IOException e) {
+                    // битая ссылка учитывается как файл, как в TreeWalker; исчезнувший во время обхода пропускается
+                    if (found != null && Files.exists(f, LinkOption.NOFOLLOW_LINKS)) found.add(f);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            incomplete = true;
+            err.println("Не удалось отследить: " + root.relativize(start) + " -> " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package org.example.filestats;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ContentHashTest {
+
+    private static ContentHash.Digest hash(byte[] data, int chunk, int upTo) {
+        ContentHash h = new ContentHash();
+        for (int off = 0; off < upTo; off += chunk) h.update(data, off, Math.min(chunk, upTo - off));
+        return h.finish(upTo == data.length);
+    }
+
+    @Test
+    void digest_does_not_depend_on_chunking() {
+        byte[] data = new byte[3 * ContentHash.PARTIAL + 5];
+        new Random(7).nextBytes(data);
+        ContentHash.Digest whole = hash(data, data.length, data.length);
+        assertTrue(whole.full);
+        for (int chunk : new int[]{1, 7, 16, 100, 4095, 4096, 5000}) {
+            ContentHash.Digest d = hash(data, chunk, data.length);
+            assertEquals(whole.fullHi, d.fullHi, "chunk " + chunk);
+            assertEquals(whole.fullLo, d.fullLo, "chunk " + chunk);
+            assertTrue(whole.samePartial(d));
+        }
+
+        // прочитанный не до конца файл сравним только по первым байтам
+        ContentHash.Digest head = hash(data, 1000, ContentHash.PARTIAL + 1000);
+        assertFalse(head.full);
+        assertTrue(whole.samePartial(head));
+
+        data[data.length - 1]++;
+        ContentHash.Digest changed = hash(data, 333, data.length);
+        assertTrue(whole.samePartial(changed));
+        assertNotEquals(whole.fullHi, changed.fullHi);
+    }
+
+    @Test
+    void trailing_zeros_change_the_digest() {
+        ContentHash.Digest a = hash(new byte[]{1, 2, 3}, 3, 3);
+        ContentHash.Digest b = hash(new byte[]{1, 2, 3, 0}, 4, 4);
+        assertNotEquals(a.fullHi, b.fullHi);
+        assertNotEquals(a.fullLo, b.fullLo);
+    }
+}
@@ -0,0 +1,42 @@
+package org.example.filestats;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DedupeTest {
+
+    @Test
+    void equal_hashes_of_different_content_are_not_duplicates(@TempDir Path dir) throws Exception {
+        Path a = Files.writeString(dir.resolve("a.txt"), "same size, one");
+        Path b = Files.writeString(dir.resolve("b.txt"), "same size, two");
+        Path c = Files.writeString(dir.resolve("c.txt"), "same size, one");
+        // коллизия: у всех трёх один и тот же хэш, хотя b отличается
+        ContentHash.Digest forged = new ContentHash.Digest(1, 2, true, 3, 4);
+        Dedupe dupes = new Dedupe();
+        for (Path p : List.of(c, b, a)) dupes.add(p, "txt", Files.size(p), forged);
+
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            dupes.finish(new ContentReader(FileStatsCli.IoMode.auto), pool,
+                    List.of(new ContentReader.Buffers(), new ContentReader.Buffers()), Path::toString,
+                    new PrintStream(err, true, StandardCharsets.UTF_8));
+        } finally {
+            pool.shutdownNow();
+        }
+        Map<String, long[]> byExt = dupes.byExt();
+        assertArrayEquals(new long[]{1, Files.size(c)}, byExt.get("txt"), err.toString(StandardCharsets.UTF_8));
+    }
+}
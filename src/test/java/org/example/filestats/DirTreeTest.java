@@ -0,0 +1,111 @@
+package org.example.filestats;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DirTreeTest {
+
+    private static final Path ROOT = Path.of("/r");
+
+    private static String rel(Path f) {
+        return ROOT.relativize(f).toString();
+    }
+
+    @Test
+    void rolls_up_subtree_totals_per_extension() {
+        DirTree tree = new DirTree(ROOT, true);
+        StatsAccumulator acc = new StatsAccumulator();
+        GroupCounters local = new GroupCounters();
+        // каталог a/b/c регистрируется раньше a: предки всё равно получают меньшие номера
+        int abc = tree.idOf(ROOT.resolve("a/b/c"));
+        int a = tree.idOf(ROOT.resolve("a"));
+        int x = tree.idOf(ROOT.resolve("x"));
+        local.add(GroupCounters.key(abc, acc.extIdOf("f.java")), 100, 10, 8, 2);
+        local.add(GroupCounters.key(abc, acc.extIdOf("g.txt")), 5, 1, 1, 0);
+        local.add(GroupCounters.key(a, acc.extIdOf("h.java")), 50, 5, 5, 1);
+        local.add(GroupCounters.key(x, acc.extIdOf("i.java")), 1, 1, 1, 0);
+        local.add(GroupCounters.key(0, acc.extIdOf("j.java")), 7, 1, 0, 0);
+        tree.merge(local, acc);
+
+        List<DirTree.Row> rows = tree.rows();
+        assertEquals(List.of(".|java", ".|txt", "a|java", "a|txt", "a/b|java", "a/b|txt", "a/b/c|java", "a/b/c|txt", "x|java"),
+                rows.stream().map(r -> r.dir + "|" + r.ext).toList());
+        DirTree.Row rootJava = rows.get(0);
+        assertEquals(4, rootJava.files);
+        assertEquals(158, rootJava.bytes);
+        assertEquals(17, rootJava.lines);
+        assertEquals(14, rootJava.nonEmpty);
+        assertEquals(3, rootJava.comment);
+        assertEquals(150, rows.get(2).bytes);
+        assertEquals(100, rows.get(4).bytes);
+    }
+
+    @Test
+    void merges_workers_with_different_local_ext_ids() {
+        DirTree tree = new DirTree(ROOT, false);
+        for (String order : new String[]{"java,txt", "txt,java"}) {
+            StatsAccumulator acc = new StatsAccumulator();
+            GroupCounters local = new GroupCounters();
+            int d = tree.idOf(ROOT.resolve("d"));
+            for (String ext : order.split(",")) local.add(GroupCounters.key(d, acc.intern(ext)), 1, 1, 1, 0);
+            tree.merge(local, acc);
+        }
+        List<DirTree.Row> rows = tree.rows();
+        assertEquals(2, rows.size());
+        assertEquals(".", rows.get(0).dir);
+        assertEquals(4, rows.get(0).files);
+        assertEquals("d", rows.get(1).dir);
+        assertEquals(4, rows.get(1).files);
+    }
+
+    @Test
+    void top_files_keeps_largest() {
+        Random rnd = new Random(7);
+        TopFiles a = new TopFiles(10, DirTreeTest::rel);
+        TopFiles b = new TopFiles(10, DirTreeTest::rel);
+        List<Long> all = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            long size = rnd.nextInt(1_000_000);
+            all.add(size);
+            (i % 2 == 0 ? a : b).offer(size, ROOT.resolve("f" + i));
+        }
+        TopFiles merged = new TopFiles(10, DirTreeTest::rel);
+        a.mergeInto(merged);
+        b.mergeInto(merged);
+        all.sort(Comparator.reverseOrder());
+        assertEquals(all.subList(0, 10), merged.sorted().stream().map(e -> e.bytes).toList());
+    }
+
+    @Test
+    void top_files_ties_do_not_depend_on_order() {
+        List<String> expected = List.of("a", "b", "c");
+        for (int shift = 0; shift < 5; shift++) {
+            TopFiles a = new TopFiles(3, DirTreeTest::rel);
+            TopFiles b = new TopFiles(3, DirTreeTest::rel);
+            for (int i = 0; i < 5; i++) {
+                String name = String.valueOf((char) ('a' + (i + shift) % 5));
+                (i % 2 == 0 ? a : b).offer(100, ROOT.resolve(name));
+            }
+            TopFiles merged = new TopFiles(3, DirTreeTest::rel);
+            b.mergeInto(merged);
+            a.mergeInto(merged);
+            assertEquals(expected, merged.sorted().stream().map(e -> e.path).toList(), "shift " + shift);
+        }
+    }
+
+    @Test
+    void top_files_ties_follow_printed_paths() {
+        // пути в отчёте начинаются с имени каталога обхода, а не с полного пути
+        TopFiles top = new TopFiles(1, f -> f.getParent().getFileName() + "/" + f.getFileName());
+        top.offer(100, Path.of("/a/zeta/f"));
+        top.offer(100, Path.of("/b/alpha/f"));
+        assertEquals(List.of("alpha/f"), top.sorted().stream().map(e -> e.path).toList());
+    }
+}
@@ -1,15 +1,23 @@
 package org.example.filestats;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedWriter;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -28,6 +36,11 @@ class FileStatsCliTest {
     }
 
     private RunResult runCli(String... args) {
+        return run(FileStatsCli::new, args);
+    }
+
+    // команда создаётся после подмены System.out: она запоминает поток при создании
+    private RunResult run(Supplier<Object> command, String... args) {
         PrintStream origOut = System.out;
         PrintStream origErr = System.err;
         ByteArrayOutputStream bosOut = new ByteArrayOutputStream();
@@ -36,7 +49,7 @@ class FileStatsCliTest {
         System.setErr(new PrintStream(bosErr, true, StandardCharsets.UTF_8));
         int code;
         try {
-            code = new picocli.CommandLine(new FileStatsCli()).execute(args);
+            code = new picocli.CommandLine(command.get()).execute(args);
         } finally {
             System.setOut(origOut);
             System.setErr(origErr);
@@ -183,6 +196,552 @@ class FileStatsCliTest {
         assertTrue(rr.out.contains("\"sh\""));
     }
 
+    @Test
+    void small_queue_processes_every_file(@TempDir Path dir) throws Exception {
+        for (int i = 0; i < 50; i++) {
+            write(dir.resolve("d" + (i % 5) + "/f" + i + ".txt"), "a", "b");
+        }
+        RunResult rr = runCli(dir.toString(), "--recursive", "--threads=3", "--queue-size=1", "--output=json");
+        assertEquals(0, rr.exitCode);
+        assertTrue(rr.out.contains("\"files\" : 50"));
+        assertTrue(rr.out.contains("\"lines\" : 100"));
+        for (String batch : new String[]{"--batch-size=1", "--batch-size=3", "--batch-size=1000"}) {
+            assertEquals(rr.out, runCli(dir.toString(), "--recursive", "--threads=3", "--queue-size=4", batch, "--output=json").out);
+        }
+    }
+
+    @Test
+    void io_modes_give_identical_results(@TempDir Path dir) throws Exception {
+        seedBasicTree(dir);
+        StringBuilder big = new StringBuilder();
+        for (int i = 0; i < 20000; i++) big.append(i % 7 == 0 ? "// c\r\n" : "code\n");
+        Files.writeString(dir.resolve("Big.java"), big);
+        String expected = runCli(dir.toString(), "--recursive", "--io-mode=stream", "--output=json").out;
+        for (String mode : new String[]{"auto", "channel", "mmap"}) {
+            RunResult rr = runCli(dir.toString(), "--recursive", "--io-mode=" + mode, "--output=json");
+            assertEquals(0, rr.exitCode);
+            assertEquals(expected, rr.out, mode);
+        }
+    }
+
+    @Test
+    void cache_reuses_unchanged_and_drops_deleted(@TempDir Path dir, @TempDir Path cacheDir) throws Exception {
+        seedBasicTree(dir);
+        Path cache = cacheDir.resolve("stats.cache");
+        String first = runCli(dir.toString(), "--recursive", "--cache=" + cache, "--output=json").out;
+        assertTrue(Files.size(cache) > 0);
+        assertEquals(first, runCli(dir.toString(), "--recursive", "--cache=" + cache, "--output=json").out);
+
+        Files.delete(dir.resolve("notes.txt"));
+        write(dir.resolve("A.java"), "// only comment");
+        String changed = runCli(dir.toString(), "--recursive", "--cache=" + cache, "--output=json").out;
+        assertEquals(runCli(dir.toString(), "--recursive", "--output=json").out, changed);
+        assertFalse(changed.contains("\"txt\""));
+    }
+
+    @Test
+    void custom_languages_override_builtin_and_invalidate_cache(@TempDir Path dir, @TempDir Path cacheDir) throws Exception {
+        write(dir.resolve("a.txt"), "REM one", "text", "REM two");
+        write(dir.resolve("B.java"), "/* block", "   comment */", "class B {}");
+        Path cache = cacheDir.resolve("stats.cache");
+        String builtin = runCli(dir.toString(), "--cache=" + cache, "--output=json", "--compact").out;
+        assertTrue(builtin.contains("\"java\":{\"files\":1,\"bytes\":33,\"lines\":3,\"nonEmpty\":3,\"comment\":2,"), builtin);
+        assertTrue(builtin.contains("\"txt\":{\"files\":1,\"bytes\":20,\"lines\":3,\"nonEmpty\":3,\"comment\":0,"), builtin);
+
+        Path langs = cacheDir.resolve("langs.conf");
+        write(langs, "[rem]", "ext txt", "line REM");
+        String custom = runCli(dir.toString(), "--cache=" + cache, "--languages=" + langs, "--output=json", "--compact").out;
+        assertTrue(custom.contains("\"txt\":{\"files\":1,\"bytes\":20,\"lines\":3,\"nonEmpty\":3,\"comment\":2,"), custom);
+
+        write(langs, "[broken]", "block /*");
+        RunResult rr = runCli(dir.toString(), "--languages=" + langs);
+        assertNotEquals(0, rr.exitCode);
+        assertTrue(rr.err.contains("langs.conf:2"), rr.err);
+    }
+
+    @Test
+    void corrupted_cache_is_rebuilt(@TempDir Path dir, @TempDir Path cacheDir) throws Exception {
+        seedBasicTree(dir);
+        Path cache = cacheDir.resolve("stats.cache");
+        Files.write(cache, new byte[]{1, 2, 3, 4, 5});
+        RunResult rr = runCli(dir.toString(), "--recursive", "--cache=" + cache, "--output=json");
+        assertEquals(0, rr.exitCode);
+        assertTrue(rr.err.contains("Кэш повреждён"));
+        assertEquals(runCli(dir.toString(), "--recursive", "--output=json").out, rr.out);
+        assertEquals(0, runCli(dir.toString(), "--recursive", "--cache=" + cache).err.length());
+    }
+
+    @Test
+    void gitignore_nested_dir_only_and_info_exclude(@TempDir Path dir) throws Exception {
+        write(dir.resolve("keep.java"), "class K{}");
+        write(dir.resolve("build"), "a file named build");
+        write(dir.resolve("app/build/Gen.java"), "class Gen{}");
+        write(dir.resolve("app/src/Main.java"), "class Main{}");
+        write(dir.resolve("app/src/notes.md"), "x");
+        write(dir.resolve("app/src/keep.md"), "x");
+        write(dir.resolve("app/.gitignore"), "*.md", "!keep.md");
+        write(dir.resolve("node_modules/lib/index.js"), "x");
+        write(dir.resolve("logs/today.log"), "x");
+        write(dir.resolve(".git/info/exclude"), "logs/");
+        write(dir.resolve(".git/HEAD"), "ref");
+        Files.writeString(dir.resolve(".gitignore"), String.join("\n", "build/", "/node_modules"));
+
+        RunResult rr = runCli(dir.toString(), "--recursive", "--git-ignore", "--output=json");
+        assertEquals(0, rr.exitCode);
+        assertTrue(rr.out.contains("\"java\" : {\n    \"files\" : 2"), rr.out);
+        assertTrue(rr.out.contains("\"md\" : {\n    \"files\" : 1"), rr.out);
+        assertTrue(rr.out.contains("\"(noext)\""), rr.out);
+        assertFalse(rr.out.contains("\"js\""));
+        assertFalse(rr.out.contains("\"log\""));
+    }
+
+    @Test
+    void parallel_walk_matches_single_thread_and_respects_depth(@TempDir Path dir) throws Exception {
+        for (int i = 0; i < 6; i++) {
+            Path d = dir;
+            for (int depth = 0; depth < 5; depth++) {
+                d = d.resolve("d" + i + "_" + depth);
+                write(d.resolve("f.txt"), "x");
+            }
+        }
+        String single = runCli(dir.toString(), "--recursive", "--walk-threads=1", "--output=json").out;
+        assertEquals(single, runCli(dir.toString(), "--recursive", "--walk-threads=8", "--output=json").out);
+        assertTrue(single.contains("\"files\" : 30"), single);
+        assertTrue(runCli(dir.toString(), "--recursive", "--max-depth=2", "--walk-threads=4", "--output=json")
+                .out.contains("\"files\" : 6"));
+    }
+
+    @Test
+    void symlink_cycle_is_not_followed(@TempDir Path dir) throws Exception {
+        write(dir.resolve("a/f.txt"), "x");
+        try {
+            Files.createSymbolicLink(dir.resolve("a/loop"), dir);
+        } catch (UnsupportedOperationException | IOException e) {
+            return;
+        }
+        RunResult rr = runCli(dir.toString(), "--recursive", "--output=json");
+        assertEquals(0, rr.exitCode);
+        assertTrue(rr.out.contains("\"files\" : 1"), rr.out);
+        assertTrue(rr.err.contains("цикл"));
+    }
+
+    @Test
+    void virtual_executor_matches_platform(@TempDir Path dir) throws Exception {
+        seedBasicTree(dir);
+        for (int i = 0; i < 40; i++) write(dir.resolve("v/f" + i + ".java"), "// c", "code", "");
+        String platform = runCli(dir.toString(), "--recursive", "--output=json").out;
+        RunResult rr = runCli(dir.toString(), "--recursive", "--executor=virtual", "--max-open-files=3", "--output=json");
+        assertEquals(0, rr.exitCode);
+        assertEquals(platform, rr.out);
+    }
+
+    @Test
+    void compact_output_is_single_line_and_sorted(@TempDir Path dir) throws Exception {
+        seedBasicTree(dir);
+        RunResult json = runCli(dir.toString(), "--recursive", "--output=json", "--compact");
+        assertEquals(0, json.exitCode);
+        assertTrue(json.out.startsWith("{\"(noext)\":{\"files\":1,\"bytes\":5,\"lines\":1,\"nonEmpty\":1,\"comment\":0,\"binary\":0},"
+                + "\"java\":{\"files\":2,"), json.out);
+        assertEquals(1, json.out.strip().lines().count());
+
+        RunResult xml = runCli(dir.toString(), "--recursive", "--output=xml", "--compact");
+        assertEquals(0, xml.exitCode);
+        assertTrue(xml.out.startsWith("<stats><ext name=\"(noext)\"><files>1</files><bytes>5</bytes>"), xml.out);
+        assertEquals(1, xml.out.strip().lines().count());
+
+        RunResult pretty = runCli(dir.toString(), "--recursive", "--output=xml");
+        assertTrue(pretty.out.contains("  <ext name=\"java\">\n    <files>2</files>"), pretty.out);
+    }
+
+    @Test
+    void group_by_dir_and_top(@TempDir Path dir) throws Exception {
+        seedBasicTree(dir);
+        RunResult rr = runCli(dir.toString(), "--recursive", "--group-by=dir", "--top=2", "--output=json", "--compact");
+        assertEquals(0, rr.exitCode, rr.err);
+        assertTrue(rr.out.startsWith("{\"dirs\":{\".\":{\"files\":6,"), rr.out);
+        assertTrue(rr.out.contains("\"sub\":{\"files\":2,\"bytes\":15,"), rr.out);
+        assertTrue(rr.out.contains("\"top\":[{\"path\":\"A.java\","), rr.out);
+        assertEquals(2, rr.out.split("\"path\"").length - 1);
+
+        RunResult both = runCli(dir.toString(), "--recursive", "--group-by=ext,dir", "--output=json", "--compact");
+        assertTrue(both.out.contains("\".\":{\"(noext)\":{\"files\":1,"), both.out);
+        assertTrue(both.out.contains("\"java\":{\"files\":2,"), both.out);
+        assertTrue(both.out.contains("\"sub\":{\"java\":{\"files\":1,"), both.out);
+    }
+
+    @Test
+    void binary_files_are_counted_separately(@TempDir Path dir, @TempDir Path cacheDir) throws Exception {
+        write(dir.resolve("a.txt"), "one", "two");
+        byte[] png = new byte[100_000];
+        png[0] = (byte) 0x89;
+        png[1] = 'P';
+        png[2] = 'N';
+        png[3] = 'G';
+        Arrays.fill(png, 4, png.length, (byte) '\n');
+        Files.write(dir.resolve("img.png"), png);
+        byte[] withNul = "text\n\0more\n".getBytes(StandardCharsets.UTF_8);
+        Files.write(dir.resolve("b.txt"), withNul);
+        Path cache = cacheDir.resolve("stats.cache");
+        for (String mode : new String[]{"stream", "channel", "mmap"}) {
+            RunResult rr = runCli(dir.toString(), "--io-mode=" + mode, "--cache=" + cache, "--output=json", "--compact");
+            assertEquals(0, rr.exitCode, rr.err);
+            assertTrue(rr.out.contains("\"png\":{\"files\":1,\"bytes\":100000,\"lines\":0,\"nonEmpty\":0,\"comment\":0,\"binary\":1}"), rr.out);
+            assertTrue(rr.out.contains("\"txt\":{\"files\":2,\"bytes\":" + (7 + withNul.length) + ",\"lines\":2,\"nonEmpty\":2,\"comment\":0,\"binary\":1}"), rr.out);
+        }
+        RunResult plain = runCli(dir.toString());
+        assertTrue(plain.out.startsWith("Ext      Files   Bytes       Lines   NonEmpty  Comment  Binary"), plain.out);
+    }
+
+    @Test
+    void metrics_out_counts_walk_filter_and_cache(@TempDir Path dir, @TempDir Path out) throws Exception {
+        seedBasicTree(dir);
+        Path cache = out.resolve("stats.cache");
+        Path metricsFile = out.resolve("metrics.json");
+        for (String executor : new String[]{"platform", "virtual"}) {
+            Files.deleteIfExists(cache);
+            for (int run = 0; run < 2; run++) {
+                RunResult rr = runCli(dir.toString(), "--recursive", "--exclude-ext=tmp", "--executor=" + executor,
+                        "--cache=" + cache, "--metrics-out=" + metricsFile, "--progress");
+                assertEquals(0, rr.exitCode, rr.err);
+                assertTrue(rr.err.contains("Файлов: найдено 6, отфильтровано 1"), rr.err);
+                assertTrue(rr.err.endsWith(System.lineSeparator()), rr.err);
+
+                JsonNode m = new ObjectMapper().readTree(metricsFile.toFile());
+                JsonNode c = m.get("counters");
+                assertEquals(2, c.get("dirs").asLong());
+                assertEquals(6, c.get("walked").asLong());
+                assertEquals(1, c.get("filtered").asLong());
+                assertEquals(run == 0 ? 5 : 0, c.get("read").asLong(), m.toString());
+                assertEquals(run == 0 ? 0 : 5, c.get("cacheHits").asLong(), m.toString());
+                assertEquals(0, c.get("failed").asLong());
+                assertEquals(5, m.get("latencyNanos").get("count").asLong());
+                assertTrue(m.get("phasesMillis").has("render"));
+                assertTrue(m.get("queue").get("capacity").asLong() > 0);
+            }
+        }
+    }
+
+    @Test
+    void dedupe_counts_identical_files_per_ext(@TempDir Path dir, @TempDir Path cacheDir) throws Exception {
+        write(dir.resolve("a.txt"), "same", "text");
+        write(dir.resolve("copy/b.txt"), "same", "text");
+        write(dir.resolve("c.txt"), "diff", "text");
+        write(dir.resolve("d.java"), "same", "text");
+        byte[] blob = new byte[200_000];
+        for (int i = 0; i < blob.length; i++) blob[i] = (byte) (i * 31);
+        Files.write(dir.resolve("x.bin"), blob);
+        Files.write(dir.resolve("copy/y.bin"), blob);
+        // те же первые байты и размер, отличается только конец — нужен полный хэш
+        blob[blob.length - 1]++;
+        Files.write(dir.resolve("z.bin"), blob);
+        Path cache = cacheDir.resolve("stats.cache");
+        assertEquals(0, runCli(dir.toString(), "--recursive", "--cache=" + cache).exitCode);
+        // дочитывание идёт в пуле прогона: с одним обработчиком — по одному файлу
+        for (String[] executor : new String[][]{{"--executor=platform"}, {"--executor=virtual"}, {"--executor=platform"},
+                {"--executor=virtual", "--max-open-files=1"}, {"--threads=1"}}) {
+            RunResult rr = runCli(concat(new String[]{dir.toString(), "--recursive", "--dedupe", "--cache=" + cache,
+                    "--output=json", "--compact"}, executor));
+            assertEquals(0, rr.exitCode, rr.err);
+            assertTrue(rr.out.contains("\"txt\":{\"files\":3,\"bytes\":27,\"lines\":6,\"nonEmpty\":6,\"comment\":0,\"binary\":0,\"dupFiles\":1,\"dupBytes\":9}"), rr.out);
+            assertTrue(rr.out.contains("\"java\":{\"files\":1,\"bytes\":9,\"lines\":2,\"nonEmpty\":2,\"comment\":0,\"binary\":0,\"dupFiles\":1,\"dupBytes\":9}"), rr.out);
+            assertTrue(rr.out.contains("\"bin\":{\"files\":3,\"bytes\":600000,\"lines\":0,\"nonEmpty\":0,\"comment\":0,\"binary\":3,\"dupFiles\":1,\"dupBytes\":200000}"), rr.out);
+        }
+        RunResult plain = runCli(dir.toString(), "--dedupe");
+        assertTrue(plain.out.startsWith("Ext      Files   Bytes       Lines   NonEmpty  Comment  Binary DupFiles DupBytes"), plain.out);
+        assertFalse(runCli(dir.toString(), "--output=json").out.contains("dupFiles"));
+        assertEquals(2, runCli(dir.toString(), "--dedupe", "--group-by=dir").exitCode);
+    }
+
+    @Test
+    void several_roots_are_summed_and_labelled(@TempDir Path dir) throws Exception {
+        seedBasicTree(dir.resolve("a"));
+        seedBasicTree(dir.resolve("b"));
+        RunResult rr = runCli(dir.resolve("a").toString(), dir.resolve("b").toString(), "--recursive", "--output=json");
+        assertEquals(0, rr.exitCode, rr.err);
+        JsonNode java = new ObjectMapper().readTree(rr.out).get("java");
+        assertEquals(4, java.get("files").asInt());
+
+        RunResult dirs = runCli(dir.resolve("a").toString(), dir.resolve("b").toString(), "--recursive", "--group-by=dir", "--output=json");
+        JsonNode tree = new ObjectMapper().readTree(dirs.out).get("dirs");
+        assertEquals(12, tree.get(".").get("files").asInt());
+        assertEquals(6, tree.get(dir.resolve("b").toString().replace('\\', '/')).get("files").asInt());
+
+        RunResult nested = runCli(dir.toString(), dir.resolve("a").toString());
+        assertNotEquals(0, nested.exitCode);
+        assertTrue(nested.err.contains("вложены"), nested.err);
+    }
+
+    @Test
+    void shards_merge_into_the_full_report(@TempDir Path dir, @TempDir Path parts) throws Exception {
+        seedBasicTree(dir);
+        for (int i = 0; i < 20; i++) write(dir.resolve("gen/f" + i + ".java"), "class F {}", "// " + "x".repeat(i));
+        String[] opts = {"--recursive", "--group-by=ext,dir", "--top=3", "--output=json"};
+        RunResult whole = runCli(concat(new String[]{dir.toString()}, opts));
+
+        String[] files = new String[3];
+        for (int i = 0; i < 3; i++) {
+            files[i] = parts.resolve("part" + i).toString();
+            RunResult rr = runCli(concat(new String[]{dir.toString(), "--shard=" + i + "/3", "--emit-partial=" + files[i]}, opts));
+            assertEquals(0, rr.exitCode, rr.err);
+        }
+        RunResult merged = run(FileStatsMerge::new, concat(files, "--output=json"));
+        assertEquals(0, merged.exitCode, merged.err);
+        assertEquals(new ObjectMapper().readTree(whole.out), new ObjectMapper().readTree(merged.out));
+
+        RunResult missing = run(FileStatsMerge::new, files[0], files[2]);
+        assertEquals(0, missing.exitCode, missing.err);
+        assertTrue(missing.err.contains("нет шардов [1] из 3"), missing.err);
+
+        RunResult twice = run(FileStatsMerge::new, files[0], files[0]);
+        assertNotEquals(0, twice.exitCode);
+        assertTrue(twice.err.contains("Часть повторяется"), twice.err);
+
+        RunResult bad = runCli(dir.toString(), "--shard=3/3");
+        assertNotEquals(0, bad.exitCode);
+
+        String filtered = parts.resolve("filtered").toString();
+        runCli(concat(new String[]{dir.toString(), "--shard=1/3", "--include-ext=java", "--emit-partial=" + filtered}, opts));
+        RunResult mixed = run(FileStatsMerge::new, files[0], filtered, files[2]);
+        assertNotEquals(0, mixed.exitCode);
+        assertTrue(mixed.err.contains("разными опциями отбора"), mixed.err);
+
+        String[] byRoot = {parts.resolve("root").toString(), parts.resolve("sub").toString()};
+        runCli(dir.toString(), "--recursive", "--emit-partial=" + byRoot[0]);
+        runCli(dir.resolve("gen").toString(), "--recursive", "--emit-partial=" + byRoot[1]);
+        RunResult nested = run(FileStatsMerge::new, byRoot);
+        assertNotEquals(0, nested.exitCode);
+        assertTrue(nested.err.contains("вложены"), nested.err);
+    }
+
+    @Test
+    void partials_of_different_roots_merge_like_one_multi_root_run(@TempDir Path dir, @TempDir Path parts) throws Exception {
+        for (String r : new String[]{"a", "b", "c"}) {
+            for (int i = 0; i < 4; i++) write(dir.resolve(r + "/f" + i + ".txt"), "x".repeat(10 * (i % 2)));
+        }
+        // каталоги указаны относительно dir: в отчёте пути --top начинаются с них, а не с абсолютных путей
+        Supplier<Object> inDir = () -> new FileStatsCli(dir, System.out, System.err, null);
+        String[] opts = {"--top=5", "--output=json"};
+        RunResult whole = run(inDir, concat(new String[]{"a", "b", "c"}, opts));
+        assertEquals(0, whole.exitCode, whole.err);
+
+        // часть из двух каталогов и часть из одного
+        String ab = parts.resolve("ab").toString(), c = parts.resolve("c").toString();
+        assertEquals(0, run(inDir, concat(new String[]{"a", "b", "--emit-partial=" + ab}, opts)).exitCode);
+        assertEquals(0, run(inDir, concat(new String[]{"c", "--emit-partial=" + c}, opts)).exitCode);
+        RunResult merged = run(FileStatsMerge::new, ab, c, "--output=json");
+        assertEquals(0, merged.exitCode, merged.err);
+        assertEquals(new ObjectMapper().readTree(whole.out), new ObjectMapper().readTree(merged.out));
+
+        String top3 = parts.resolve("top3").toString();
+        run(inDir, "c", "--top=3", "--emit-partial=" + top3);
+        RunResult mixed = run(FileStatsMerge::new, ab, top3);
+        assertNotEquals(0, mixed.exitCode);
+        assertTrue(mixed.err.contains("разным --top"), mixed.err);
+    }
+
+    @Test
+    void sample_is_not_biased_by_walk_order(@TempDir Path dir) throws Exception {
+        // первыми находятся крупные файлы: они — обязательная часть и не должны тянуть среднее остальных вверх
+        String big = "x".repeat(99_999);
+        for (int i = 0; i < Sampler.MIN_PER_EXT; i++) write(dir.resolve("big" + i + ".txt"), big, "");
+        String small = "y".repeat(47);
+        for (int i = 0; i < 3000; i++) write(dir.resolve("sub/s" + i + ".txt"), small, "");
+        long total = 30 * 100_000L + 3000 * 48L;
+
+        RunResult rr = runCli(dir.toString(), "--recursive", "--walk-threads=1", "--sample=0.05", "--output=json");
+        assertEquals(0, rr.exitCode, rr.err);
+        JsonNode txt = new ObjectMapper().readTree(rr.out).get("txt");
+        assertEquals(3030, txt.get("files").asInt());
+        assertTrue(txt.get("sampled").asInt() < 400, rr.out);
+        assertTrue(Math.abs(txt.get("bytes").asLong() - total) <= txt.get("ci95").get("bytes").asLong(), rr.out);
+        assertTrue(Math.abs(txt.get("bytes").asLong() - total) < total / 100, rr.out);
+
+        // из остальных файлов ничего не прочитано: итог не оценивается, а не равен обязательной части
+        RunResult none = runCli(dir.toString(), "--recursive", "--walk-threads=1", "--sample=0.00001", "--output=json");
+        JsonNode est = new ObjectMapper().readTree(none.out).get("txt");
+        assertEquals(3030, est.get("files").asInt());
+        assertTrue(est.get("bytes").isNull(), none.out);
+        assertNull(est.get("ci95"), none.out);
+        RunResult plain = runCli(dir.toString(), "--recursive", "--walk-threads=1", "--sample=0.00001");
+        assertTrue(plain.out.contains("txt      3030    -           -       -         -        -      30"), plain.out);
+    }
+
+    @Test
+    void time_budget_stops_the_walk(@TempDir Path dir) throws Exception {
+        String kb = "x".repeat(1023);
+        for (int i = 0; i < 400; i++) write(dir.resolve("d" + i % 40 + "/f" + i + (i % 2 == 0 ? ".java" : ".md")), kb, "");
+        // чтение медленное, очередь короткая: обход ждёт обработчика и к концу бюджета находит только часть файлов
+        String[] slow = {dir.toString(), "--recursive", "--walk-threads=1", "--threads=1", "--queue-size=32", "--batch-size=8",
+                "--max-read-rate=20K", "--time-budget=500ms"};
+        RunResult rr = runCli(concat(slow, "--output=json"));
+        assertEquals(0, rr.exitCode, rr.err);
+        assertTrue(rr.err.contains("обход остановлен"), rr.err);
+        JsonNode exts = new ObjectMapper().readTree(rr.out);
+        long found = 0;
+        for (JsonNode ext : exts) {
+            found += ext.get("files").asLong();
+            // найдены не все файлы: итоги — нижние границы, без интервала
+            assertFalse(ext.get("complete").asBoolean(), rr.out);
+            assertNull(ext.get("ci95"), rr.out);
+            // не прочитано ни одного файла — итоги не оцениваются, а не равны нулю
+            if (ext.get("sampled").asLong() == 0) assertTrue(ext.get("bytes").isNull(), rr.out);
+        }
+        assertTrue(found > 0 && found < 400, rr.out);
+
+        RunResult xml = runCli(concat(slow, "--output=xml"));
+        assertTrue(xml.out.contains("<complete>false</complete>"), xml.out);
+        assertFalse(xml.out.contains("<ci95>"), xml.out);
+    }
+
+    @Test
+    void time_budget_during_census_reports_read_sums(@TempDir Path dir) throws Exception {
+        String body = "line\n".repeat(10240);
+        for (int i = 0; i < 60; i++) write(dir.resolve("f" + i + ".txt"), body);
+        // обход находит все 60 файлов сразу, а до конца бюджета читается лишь несколько из обязательной части
+        RunResult rr = runCli(dir.toString(), "--sample=0.5", "--walk-threads=1", "--threads=1",
+                "--max-read-rate=250K", "--time-budget=1s", "--output=json");
+        assertEquals(0, rr.exitCode, rr.err);
+        JsonNode txt = new ObjectMapper().readTree(rr.out).get("txt");
+        assertEquals(60, txt.get("files").asLong(), rr.out);
+        long sampled = txt.get("sampled").asLong();
+        assertTrue(sampled > 0 && sampled < 30, rr.out);
+        // прочитанные — первые по порядку, а не случайная выборка: итог — их суммы, а не оценка на все 60
+        assertFalse(txt.get("complete").asBoolean(), rr.out);
+        assertEquals(sampled * body.length(), txt.get("bytes").asLong(), rr.out);
+        assertEquals(sampled * 10240, txt.get("lines").asLong(), rr.out);
+        assertNull(txt.get("ci95"), rr.out);
+    }
+
+    @Test
+    void sample_extrapolates_totals_within_confidence_interval(@TempDir Path dir) throws Exception {
+        long bytes = 0, lines = 0;
+        for (int i = 0; i < 400; i++) {
+            String[] body = new String[1 + i % 17];
+            Arrays.fill(body, "x".repeat(i % 23));
+            write(dir.resolve("d" + i % 7 + "/f" + i + ".java"), body);
+            bytes += Files.size(dir.resolve("d" + i % 7 + "/f" + i + ".java"));
+            lines += body.length;
+        }
+        for (int i = 0; i < 5; i++) write(dir.resolve("n" + i + ".txt"), "a", "b");
+
+        RunResult rr = runCli(dir.toString(), "--recursive", "--sample=0.25", "--output=json");
+        assertEquals(0, rr.exitCode, rr.err);
+        JsonNode java = new ObjectMapper().readTree(rr.out).get("java");
+        assertEquals(400, java.get("files").asInt());
+        int sampled = java.get("sampled").asInt();
+        assertTrue(sampled >= Sampler.MIN_PER_EXT && sampled < 400, rr.out);
+        assertTrue(Math.abs(java.get("bytes").asLong() - bytes) <= java.get("ci95").get("bytes").asLong(), rr.out);
+        assertTrue(Math.abs(java.get("lines").asLong() - lines) <= java.get("ci95").get("lines").asLong(), rr.out);
+        // редкие расширения читаются целиком
+        JsonNode txt = new ObjectMapper().readTree(rr.out).get("txt");
+        assertEquals(5, txt.get("sampled").asInt());
+        assertEquals(10, txt.get("lines").asInt());
+        assertEquals(0, txt.get("ci95").get("lines").asInt());
+        assertTrue(java.get("complete").asBoolean(), rr.out);
+
+        RunResult budget = runCli(dir.toString(), "--recursive", "--time-budget=1h", "--max-read-rate=100M", "--output=json");
+        JsonNode all = new ObjectMapper().readTree(budget.out).get("java");
+        assertEquals(bytes, all.get("bytes").asLong());
+        assertEquals(400, all.get("sampled").asInt());
+
+        assertNotEquals(0, runCli(dir.toString(), "--sample=1.5").exitCode);
+        assertNotEquals(0, runCli(dir.toString(), "--time-budget=soon").exitCode);
+        assertNotEquals(0, runCli(dir.toString(), "--sample=0.5", "--top=3").exitCode);
+    }
+
+    @Test
+    void lines_only_counts_bytes_and_lines(@TempDir Path dir) throws Exception {
+        seedBasicTree(dir);
+        RunResult full = runCli(dir.toString(), "--recursive", "--output=json");
+        RunResult rr = runCli(dir.toString(), "--recursive", "--lines-only", "--output=json");
+        assertEquals(0, rr.exitCode, rr.err);
+        JsonNode java = new ObjectMapper().readTree(rr.out).get("java");
+        assertEquals(3, java.size(), rr.out);
+        assertEquals(new ObjectMapper().readTree(full.out).get("java").get("lines"), java.get("lines"));
+        assertEquals(new ObjectMapper().readTree(full.out).get("java").get("bytes"), java.get("bytes"));
+
+        RunResult plain = runCli(dir.toString(), "--lines-only");
+        assertTrue(plain.out.startsWith("Ext      Files   Bytes       Lines  " + System.lineSeparator()), plain.out);
+    }
+
+    @Test
+    void lines_only_reads_large_file_in_chunks_on_scan_workers(@TempDir Path dir) throws Exception {
+        seedBasicTree(dir);
+        Path big = dir.resolve("big.log");
+        Random rnd = new Random(5);
+        byte[] line = new byte[200];
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(big), 1 << 20)) {
+            for (long written = 0; written < 4 * ContentReader.CHUNK + 12345; written += line.length) {
+                int len = 1 + rnd.nextInt(line.length - 1);
+                for (int i = 0; i < len - 1; i++) line[i] = (byte) ('a' + rnd.nextInt(26));
+                line[len - 1] = '\n';
+                out.write(line, 0, len);
+            }
+            // последняя строка без перевода
+            out.write('z');
+        }
+        for (int i = 0; i < 40; i++) write(dir.resolve("s/f" + i + ".log"), "a", "b");
+        ObjectMapper om = new ObjectMapper();
+        JsonNode expected = om.readTree(runCli(dir.toString(), "--recursive", "--threads=1", "--output=json").out).get("log");
+
+        for (String[] mode : new String[][]{{"--threads=4"}, {"--executor=virtual", "--max-open-files=3"}}) {
+            RunResult rr = runCli(concat(new String[]{dir.toString(), "--recursive", "--lines-only", "--output=json"}, mode));
+            assertEquals(0, rr.exitCode, rr.err);
+            JsonNode log = om.readTree(rr.out).get("log");
+            assertEquals(expected.get("lines"), log.get("lines"), Arrays.toString(mode));
+            assertEquals(expected.get("bytes"), log.get("bytes"), Arrays.toString(mode));
+        }
+    }
+
+    private static String[] concat(String[] a, String... b) {
+        String[] all = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, all, a.length, b.length);
+        return all;
+    }
+
+    private static String awaitReport(ByteArrayOutputStream bos, Predicate<String> done) throws InterruptedException {
+        String last = "";
+        for (long end = System.nanoTime() + 10_000_000_000L; System.nanoTime() < end; Thread.sleep(20)) {
+            String[] lines = bos.toString(StandardCharsets.UTF_8).split("\\R");
+            last = lines[lines.length - 1];
+            if (done.test(last)) return last;
+        }
+        fail("нет ожидаемого отчёта, последний: " + last);
+        return last;
+    }
+
+    @Test
+    void watch_applies_created_modified_and_deleted_files(@TempDir Path dir) throws Exception {
+        write(dir.resolve("a.txt"), "one", "two");
+        write(dir.resolve("sub/b.java"), "// c", "class B {}");
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(bos, true, StandardCharsets.UTF_8);
+        int[] code = {-1};
+        Thread watcher = new Thread(() -> code[0] = new picocli.CommandLine(new FileStatsCli(null, out, out, null))
+                .execute(dir.toString(), "--recursive", "--watch", "--watch-debounce=50", "--output=json", "--compact"));
+        watcher.start();
+        try {
+            awaitReport(bos, r -> r.contains("\"java\":{\"files\":1,\"bytes\":15,\"lines\":2,\"nonEmpty\":2,\"comment\":1")
+                    && r.contains("\"txt\":{\"files\":1,\"bytes\":7,"));
+
+            write(dir.resolve("a.txt"), "one", "two", "three");
+            awaitReport(bos, r -> r.contains("\"txt\":{\"files\":1,\"bytes\":13,\"lines\":3,"));
+
+            write(dir.resolve("new/deep/c.java"), "class C {}");
+            awaitReport(bos, r -> r.contains("\"java\":{\"files\":2,\"bytes\":25,\"lines\":3,"));
+
+            Files.delete(dir.resolve("sub/b.java"));
+            Files.delete(dir.resolve("sub"));
+            Files.delete(dir.resolve("a.txt"));
+            String last = awaitReport(bos, r -> r.contains("\"java\":{\"files\":1,\"bytes\":10,") && !r.contains("txt"));
+            assertEquals("{\"java\":{\"files\":1,\"bytes\":10,\"lines\":1,\"nonEmpty\":1,\"comment\":0,\"binary\":0}}", last);
+        } finally {
+            watcher.interrupt();
+            watcher.join(10_000);
+        }
+        assertEquals(0, code[0], bos.toString(StandardCharsets.UTF_8));
+    }
+
     @Test
     void invalid_path_returns_error(@TempDir Path dir) {
         Path noDir = dir.resolve("no_such_dir");
@@ -0,0 +1,235 @@
+package org.example.filestats;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.List;
+import java.util.function.IntSupplier;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileStatsServerTest {
+
+    private static String[] run(IntSupplier command) {
+        PrintStream origOut = System.out;
+        PrintStream origErr = System.err;
+        ByteArrayOutputStream bosOut = new ByteArrayOutputStream();
+        ByteArrayOutputStream bosErr = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(bosOut, true, StandardCharsets.UTF_8));
+        System.setErr(new PrintStream(bosErr, true, StandardCharsets.UTF_8));
+        int code;
+        try {
+            code = command.getAsInt();
+        } finally {
+            System.setOut(origOut);
+            System.setErr(origErr);
+        }
+        return new String[]{Integer.toString(code), bosOut.toString(StandardCharsets.UTF_8), bosErr.toString(StandardCharsets.UTF_8)};
+    }
+
+    @Test
+    void client_gets_local_report_and_server_keeps_cache(@TempDir Path dir, @TempDir Path tmp) throws Exception {
+        Files.writeString(dir.resolve("A.java"), "// c\nclass A {}\n");
+        Files.createDirectories(dir.resolve("sub"));
+        Files.writeString(dir.resolve("sub/b.sh"), "# x\necho\n");
+        Files.writeString(dir.resolve("notes.txt"), "one\n\ntwo\n");
+        Path socket = tmp.resolve("fs.sock");
+        Path metrics = tmp.resolve("metrics.json");
+
+        FileStatsServer server = new FileStatsServer(socket);
+        server.bind();
+        assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(socket)));
+        try (Stream<Path> left = Files.list(tmp)) {
+            assertTrue(left.noneMatch(p -> p.getFileName().toString().startsWith(".fs")));
+        }
+        Thread accept = new Thread(() -> {
+            try {
+                server.serve();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        accept.start();
+        try {
+            String[] local = run(() -> new picocli.CommandLine(new FileStatsCli()).execute(dir.toString(), "--recursive", "--output=json"));
+            String[] remote = run(() -> new picocli.CommandLine(new FileStatsCli())
+                    .execute("--connect=" + socket, dir.toString(), "--recursive", "--output=json"));
+            assertEquals("0", remote[0], remote[2]);
+            assertEquals(local[1], remote[1]);
+
+            String[] again = run(() -> FileStatsClient.run(socket,
+                    new String[]{dir.toString(), "--recursive", "--metrics-out=" + metrics, "--progress"}));
+            assertEquals("0", again[0], again[2]);
+            assertTrue(again[1].startsWith("Ext"), again[1]);
+            // без изменений отчёт берётся из памяти: дерево не обходится
+            JsonNode m = new ObjectMapper().readTree(metrics.toFile());
+            assertEquals(0, m.get("counters").get("read").asLong());
+            assertEquals(0, m.get("counters").get("cacheHits").asLong());
+
+            // изменения приходят событиями: перечитывается только изменившийся файл
+            Files.writeString(dir.resolve("A.java"), "// c\nclass A {}\n\n");
+            String[] updated = remote;
+            for (int i = 0; i < 100 && updated[1].equals(remote[1]); i++) {
+                Thread.sleep(50);
+                updated = run(() -> FileStatsClient.run(socket,
+                        new String[]{dir.toString(), "--recursive", "--output=json", "--metrics-out=" + metrics}));
+            }
+            String[] localUpdated = run(() -> new picocli.CommandLine(new FileStatsCli()).execute(dir.toString(), "--recursive", "--output=json"));
+            assertEquals(localUpdated[1], updated[1]);
+            m = new ObjectMapper().readTree(metrics.toFile());
+            assertEquals(1, m.get("counters").get("read").asLong());
+
+            // другие опции отчёта — обход с кэшем слота
+            String[] top = run(() -> FileStatsClient.run(socket,
+                    new String[]{dir.toString(), "--recursive", "--top=1", "--progress"}));
+            assertEquals("0", top[0], top[2]);
+            assertTrue(top[2].contains("из кэша 3"), top[2]);
+
+            // предупреждения уходят клиенту, а не в stderr сервера
+            Path other = Files.createDirectories(tmp.resolve("other"));
+            Path badCache = tmp.resolve("bad.cache");
+            Files.writeString(badCache, "garbage");
+            String[] warned = run(() -> FileStatsClient.run(socket,
+                    new String[]{other.toString(), "--cache=" + badCache}));
+            assertEquals("0", warned[0], warned[2]);
+            assertTrue(warned[2].contains("Кэш повреждён"), warned[2]);
+
+            String[] missing = run(() -> FileStatsClient.run(socket, new String[]{dir.resolve("nope").toString()}));
+            assertNotEquals("0", missing[0]);
+            assertTrue(missing[2].contains("Путь не является каталогом"), missing[2]);
+
+            // подкоманды на сервере не выполняются: serve — просто путь
+            String[] nested = run(() -> FileStatsClient.run(socket, new String[]{"serve", "--socket=" + tmp.resolve("nested.sock")}));
+            assertNotEquals("0", nested[0]);
+            assertFalse(Files.exists(tmp.resolve("nested.sock")));
+        } finally {
+            server.close();
+            accept.join();
+        }
+        assertFalse(Files.exists(socket));
+        String[] down = run(() -> FileStatsClient.run(socket, new String[]{dir.toString()}));
+        assertEquals("1", down[0]);
+        assertTrue(down[2].contains("Не удалось выполнить запрос на сервере"), down[2]);
+    }
+
+    @Test
+    void gitignore_warnings_go_to_the_request_that_reads_it(@TempDir Path dir, @TempDir Path tmp) throws Exception {
+        Files.writeString(dir.resolve("a.txt"), "x\n");
+        Path socket = tmp.resolve("fs.sock");
+        FileStatsServer server = new FileStatsServer(socket);
+        server.bind();
+        Thread accept = new Thread(() -> {
+            try {
+                server.serve();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        accept.start();
+        try {
+            String[] args = {dir.toString(), "--recursive", "--git-ignore"};
+            String[] first = run(() -> FileStatsClient.run(socket, args));
+            assertEquals("0", first[0], first[2]);
+            assertEquals("", first[2]);
+
+            // каталог с нечитаемым .gitignore появляется целиком: его правила читает наблюдатель слота
+            Path staged = Files.createDirectories(tmp.resolve("staged/bad"));
+            Files.createDirectories(staged.resolve(".gitignore"));
+            Files.writeString(staged.resolve("b.txt"), "y\n");
+            Files.move(staged, dir.resolve("bad"));
+            String[] second = first;
+            for (int i = 0; i < 100 && !second[2].contains("Не удалось прочитать"); i++) {
+                Thread.sleep(50);
+                second = run(() -> FileStatsClient.run(socket, args));
+            }
+            assertEquals("0", second[0], second[2]);
+            assertTrue(second[2].contains("Не удалось прочитать") && second[2].contains(".gitignore"), second[2]);
+        } finally {
+            server.close();
+            accept.join();
+        }
+    }
+
+    @Test
+    void socket_in_a_directory_writable_by_others_is_refused(@TempDir Path dir) throws Exception {
+        Path shared = Files.createDirectories(dir.resolve("shared"));
+        Files.setPosixFilePermissions(shared, PosixFilePermissions.fromString("rwxrwxrwx"));
+        Path socket = shared.resolve("fs.sock");
+
+        IllegalStateException e = assertThrows(IllegalStateException.class, () -> new FileStatsServer(socket).bind());
+        assertTrue(e.getMessage().contains("доступен на запись"), e.getMessage());
+        assertFalse(Files.exists(socket));
+
+        // подложенный другим пользователем сокет: клиент к нему не подключается
+        Files.createFile(socket);
+        String[] client = run(() -> FileStatsClient.run(socket, new String[]{dir.toString()}));
+        assertEquals("1", client[0]);
+        assertTrue(client[2].contains("небезопасный сокет"), client[2]);
+    }
+
+    @Test
+    void least_recently_used_slot_is_evicted() {
+        ResidentIndex index = new ResidentIndex(2);
+        ResidentIndex.Slot a = index.slot(List.of(Path.of("/a")), 1, "");
+        ResidentIndex.Slot b = index.slot(List.of(Path.of("/b")), 1, "");
+        assertSame(a, index.slot(List.of(Path.of("/a")), 1, ""));
+        index.slot(List.of(Path.of("/c")), 1, "");
+        assertEquals(2, index.size());
+        assertSame(a, index.slot(List.of(Path.of("/a")), 1, ""));
+        assertNotSame(b, index.slot(List.of(Path.of("/b")), 1, ""));
+        assertEquals(2, index.size());
+        index.close();
+        assertEquals(0, index.size());
+    }
+
+    @Test
+    void subcommands_and_connect_are_parsed_by_picocli(@TempDir Path dir) throws Exception {
+        String usage = new picocli.CommandLine(new FileStatsCli()).getUsageMessage();
+        assertTrue(usage.contains("serve") && usage.contains("merge"), usage);
+        String[] serveHelp = run(() -> new picocli.CommandLine(new FileStatsCli()).execute("serve", "--help"));
+        assertEquals("0", serveHelp[0], serveHelp[2]);
+        assertTrue(serveHelp[1].contains("--socket"), serveHelp[1]);
+        String[] merge = run(() -> new picocli.CommandLine(new FileStatsCli()).execute("merge", dir.resolve("none.part").toString()));
+        assertEquals("2", merge[0]);
+        assertTrue(merge[2].contains("Не удалось прочитать частичный результат"), merge[2]);
+        String[] noPath = run(() -> new picocli.CommandLine(new FileStatsCli()).execute("--recursive"));
+        assertEquals("2", noPath[0]);
+        assertTrue(noPath[2].contains("Не указан ни один каталог"), noPath[2]);
+
+        // каталог с именем подкоманды — после «--»
+        Files.createDirectories(dir.resolve("serve"));
+        Files.writeString(dir.resolve("serve/a.txt"), "x\n");
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(bos, true, StandardCharsets.UTF_8);
+        int code = new picocli.CommandLine(new FileStatsCli(dir, out, out, null)).execute("--output=json", "--", "serve");
+        assertEquals(0, code, bos.toString(StandardCharsets.UTF_8));
+        assertTrue(bos.toString(StandardCharsets.UTF_8).contains("\"txt\""), bos.toString(StandardCharsets.UTF_8));
+
+        // «--connect .»: точка — каталог, сокет — по умолчанию
+        String[] byDefault = run(() -> new picocli.CommandLine(new FileStatsCli()).execute("--connect", dir.toString()));
+        assertEquals("1", byDefault[0]);
+        assertTrue(byDefault[2].contains(FileStatsClient.defaultSocket().toString()), byDefault[2]);
+        Path none = dir.resolve("none.sock");
+        String[] explicit = run(() -> new picocli.CommandLine(new FileStatsCli()).execute(dir.toString(), "--connect=" + none));
+        assertEquals("1", explicit[0]);
+        assertTrue(explicit[2].contains(none.toString()), explicit[2]);
+
+        // main узнаёт --connect до picocli с теми же правилами
+        assertEquals("", FileStatsClient.connectOption(new String[]{"--connect", "."}));
+        assertEquals("/s.sock", FileStatsClient.connectOption(new String[]{".", "--connect=/s.sock", "--recursive"}));
+        assertNull(FileStatsClient.connectOption(new String[]{".", "--", "--connect"}));
+        assertNull(FileStatsClient.connectOption(new String[]{"serve", "--connect"}));
+        assertEquals("", FileStatsClient.connectOption(new String[]{"--connect", "--", "serve"}));
+    }
+}
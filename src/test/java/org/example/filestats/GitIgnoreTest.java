@@ -0,0 +1,84 @@
+package org.example.filestats;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GitIgnoreTest {
+
+    private static GitIgnore load(Path dir, String... lines) throws IOException {
+        Files.writeString(dir.resolve(".gitignore"), String.join("\n", lines));
+        return GitIgnore.load(dir, System.err);
+    }
+
+    @Test
+    void basename_literal_suffix_and_glob(@TempDir Path dir) throws IOException {
+        GitIgnore gi = load(dir, "*.class", "Thumbs.db", "tmp-??.txt", "[ab]*.log");
+        assertTrue(gi.ignored(Path.of("a/b/X.class")));
+        assertTrue(gi.ignored(Path.of("deep/Thumbs.db")));
+        assertTrue(gi.ignored(Path.of("tmp-01.txt")));
+        assertFalse(gi.ignored(Path.of("tmp-001.txt")));
+        assertTrue(gi.ignored(Path.of("x/b1.log")));
+        assertFalse(gi.ignored(Path.of("x/c1.log")));
+        assertFalse(gi.ignored(Path.of("X.java")));
+    }
+
+    @Test
+    void anchored_and_double_star(@TempDir Path dir) throws IOException {
+        GitIgnore gi = load(dir, "/out", "docs/**/*.pdf", "**/gen/*.java", "a/**");
+        assertTrue(gi.ignored(Path.of("out/x.txt")));
+        assertFalse(gi.ignored(Path.of("sub/out/x.txt")));
+        assertTrue(gi.ignored(Path.of("docs/x.pdf")));
+        assertTrue(gi.ignored(Path.of("docs/a/b/x.pdf")));
+        assertFalse(gi.ignored(Path.of("other/docs/x.pdf")));
+        assertTrue(gi.ignored(Path.of("m/n/gen/A.java")));
+        assertTrue(gi.ignored(Path.of("a/file")));
+        assertFalse(gi.ignored(new String[]{"a"}, 1, true));
+    }
+
+    @Test
+    void dir_only_and_negation_last_rule_wins(@TempDir Path dir) throws IOException {
+        GitIgnore gi = load(dir, "build/", "*.md", "!README.md");
+        assertTrue(gi.ignored(new String[]{"build"}, 1, true));
+        assertFalse(gi.ignored(new String[]{"build"}, 1, false));
+        assertTrue(gi.ignored(Path.of("x/notes.md")));
+        assertFalse(gi.ignored(Path.of("x/README.md")));
+    }
+
+    @Test
+    void nested_gitignore_overrides_parent(@TempDir Path dir) throws IOException {
+        GitIgnore root = load(dir, "*.log");
+        Path sub = Files.createDirectories(dir.resolve("sub"));
+        Files.writeString(sub.resolve(".gitignore"), "!keep.log\n/local.txt\n");
+        GitIgnore nested = root.enter(sub, 1, System.err);
+        assertFalse(nested.ignored(new String[]{"sub", "keep.log"}, 2, false));
+        assertTrue(nested.ignored(new String[]{"sub", "other.log"}, 2, false));
+        assertTrue(nested.ignored(new String[]{"sub", "local.txt"}, 2, false));
+        assertFalse(nested.ignored(new String[]{"sub", "x", "local.txt"}, 3, false));
+        assertSame(root, root.enter(Files.createDirectories(dir.resolve("plain")), 1, System.err));
+    }
+
+    @Test
+    void watcher_rereads_nested_gitignore_after_it_changes(@TempDir Path dir) throws Exception {
+        Path sub = Files.createDirectories(dir.resolve("sub"));
+        Files.createDirectories(sub.resolve("gen"));
+        Files.writeString(sub.resolve(".gitignore"), "gen/\n");
+        try (TreeWatcher w = new TreeWatcher(dir, Integer.MAX_VALUE, p -> true, GitIgnore.load(dir, System.err), System.err)) {
+            assertTrue(w.knownDir(sub));
+            assertFalse(w.knownDir(sub.resolve("gen")));
+            assertFalse(w.included(sub.resolve("gen/A.java"), System.err));
+
+            Files.writeString(sub.resolve(".gitignore"), "*.tmp\n");
+            TreeWatcher.Changes c = w.next(100, System.err);
+            assertTrue(c.rescan);
+            assertTrue(w.knownDir(sub.resolve("gen")));
+            assertTrue(w.included(sub.resolve("gen/A.java"), System.err));
+            assertFalse(w.included(sub.resolve("x.tmp"), System.err));
+        }
+    }
+}
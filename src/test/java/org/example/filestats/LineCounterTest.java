@@ -0,0 +1,79 @@
+package org.example.filestats;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LineCounterTest {
+
+    private static int naive(byte[] data, int off, int len) {
+        int n = 0;
+        for (int i = off; i < off + len; i++) if (data[i] == '\n') n++;
+        return n;
+    }
+
+    @Test
+    void swar_count_matches_byte_loop() {
+        Random rnd = new Random(11);
+        byte[] data = new byte[4096];
+        // байты рядом с '\n' (0x09, 0x0B, 0x8A) и переносы между байтами слова не должны давать ложных совпадений
+        byte[] alphabet = {'\n', '\n', 0x09, 0x0B, (byte) 0x8A, 0x00, (byte) 0xFF, 0x01, 'a'};
+        for (int i = 0; i < data.length; i++) data[i] = alphabet[rnd.nextInt(alphabet.length)];
+        for (int off = 0; off < 9; off++) {
+            for (int len : new int[]{0, 1, 7, 8, 9, 63, 1000, data.length - off}) {
+                assertEquals(naive(data, off, len), LineCounter.count(data, off, len), off + "+" + len);
+            }
+        }
+    }
+
+    @Test
+    void parts_add_up_at_chunk_boundaries() {
+        byte[] data = "a\nbb\n\nccc".getBytes();
+        for (int cut = 0; cut <= data.length; cut++) {
+            LineCounter head = new LineCounter(), tail = new LineCounter();
+            head.accept(data, 0, cut);
+            tail.accept(data, cut, data.length - cut);
+            assertEquals(4, LineCounter.lines(List.of(head, tail)), "cut " + cut);
+        }
+        LineCounter whole = new LineCounter();
+        whole.accept("x\n".getBytes(), 0, 2);
+        assertEquals(1, whole.lines());
+        assertEquals(1, LineCounter.lines(List.of(whole, new LineCounter())));
+        assertEquals(0, new LineCounter().lines());
+    }
+
+    @Test
+    void large_file_is_read_in_parallel_chunks(@TempDir Path dir) throws Exception {
+        byte[] data = new byte[(int) (2 * ContentReader.CHUNK + 12345)];
+        new Random(3).nextBytes(data);
+        // перевод строки последним байтом первой части и первым байтом второй
+        data[(int) ContentReader.CHUNK - 1] = '\n';
+        data[(int) ContentReader.CHUNK] = '\n';
+        data[data.length - 1] = 'z';
+        Path file = dir.resolve("big.log");
+        Files.write(file, data);
+
+        ContentReader reader = new ContentReader(FileStatsCli.IoMode.auto);
+        long expected = naive(data, 0, data.length) + 1;
+        assertEquals(expected, new ChunkReader(reader, null).lines(file, data.length, new ContentReader.Buffers()));
+
+        // части, которые взял помощник, дочитываются до возврата
+        AtomicReference<ChunkReader> chunks = new AtomicReference<>();
+        AtomicInteger asked = new AtomicInteger();
+        chunks.set(new ChunkReader(reader, n -> {
+            asked.set(n);
+            Thread helper = new Thread(() -> chunks.get().help(new ContentReader.Buffers()));
+            helper.start();
+        }));
+        assertEquals(expected, chunks.get().lines(file, data.length, new ContentReader.Buffers()));
+        assertEquals(2, asked.get());
+    }
+}
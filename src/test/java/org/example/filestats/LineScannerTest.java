@@ -0,0 +1,207 @@
+package org.example.filestats;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LineScannerTest {
+
+    // только однострочный комментарий: поведение прежней проверки префикса
+    private static final Dialect SLASH = new Dialect.Builder("slash").line("//").compile();
+    private static final Dialect HASH = new Dialect.Builder("hash").line("#").compile();
+
+    private static long[] scan(byte[] data, Dialect dialect, int chunk) {
+        LineScanner s = new LineScanner();
+        s.reset(dialect);
+        for (int off = 0; off < data.length; off += chunk) {
+            s.accept(data, off, Math.min(chunk, data.length - off));
+        }
+        s.finish();
+        return new long[]{s.totalLines(), s.nonEmptyLines(), s.commentLines()};
+    }
+
+    // прежняя реализация processFile: readLine + fallback по '\n' при ошибке декодирования
+    private static long[] reference(byte[] data, String prefix) {
+        long total = 0, nonEmpty = 0, comment = 0;
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(data),
+                StandardCharsets.UTF_8.newDecoder()))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                total++;
+                if (!line.isBlank()) {
+                    nonEmpty++;
+                    if (!prefix.isEmpty() && line.stripLeading().startsWith(prefix)) comment++;
+                }
+            }
+        } catch (Exception e) {
+            total = 0;
+            for (byte b : data) if (b == '\n') total++;
+            nonEmpty = 0;
+            comment = 0;
+        }
+        return new long[]{total, nonEmpty, comment};
+    }
+
+    @Test
+    void counts_simple_java() {
+        byte[] data = "  // c1\nclass A {}\n   \n//c2".getBytes(StandardCharsets.UTF_8);
+        assertArrayEquals(new long[]{4, 3, 2}, scan(data, SLASH, 1 << 16));
+    }
+
+    @Test
+    void crlf_and_cr_terminators() {
+        byte[] data = "a\r\nb\rc\n\r\n".getBytes(StandardCharsets.UTF_8);
+        assertArrayEquals(reference(data, ""), scan(data, Dialect.PLAIN, 1));
+        assertArrayEquals(new long[]{4, 3, 0}, scan(data, Dialect.PLAIN, 3));
+    }
+
+    @Test
+    void unicode_whitespace_is_blank() {
+        byte[] data = " 　\n \n　# x\n".getBytes(StandardCharsets.UTF_8);
+        assertArrayEquals(reference(data, "#"), scan(data, HASH, 2));
+    }
+
+    @Test
+    void malformed_utf8_counts_only_newlines() {
+        byte[] data = {'a', '\n', (byte) 0xC3, '\n', 'b', '\r', '\n'};
+        assertArrayEquals(new long[]{3, 0, 0}, scan(data, HASH, 4));
+        byte[] truncated = {'a', '\n', (byte) 0xE2, (byte) 0x80};
+        assertArrayEquals(new long[]{1, 0, 0}, scan(truncated, HASH, 1));
+    }
+
+    @Test
+    void matches_reader_on_random_input() {
+        Random rnd = new Random(42);
+        String[] pieces = {"a", " ", "\t", "\n", "\r", "\r\n", "//", "/", "#", "é", " ", "　", "😀", "\u000B"};
+        for (int iter = 0; iter < 2000; iter++) {
+            StringBuilder sb = new StringBuilder();
+            int n = rnd.nextInt(40);
+            for (int i = 0; i < n; i++) sb.append(pieces[rnd.nextInt(pieces.length)]);
+            byte[] data = sb.toString().getBytes(StandardCharsets.UTF_8);
+            if (rnd.nextInt(10) == 0 && data.length > 0) {
+                data[rnd.nextInt(data.length)] = (byte) (0x80 + rnd.nextInt(0x80));
+            }
+            int chunk = 1 + rnd.nextInt(8);
+            assertArrayEquals(reference(data, "//"), scan(data, SLASH, chunk), sb.toString());
+            assertArrayEquals(reference(data, "#"), scan(data, HASH, chunk), sb.toString());
+        }
+    }
+
+    private static long[] scan(String text, String ext) {
+        byte[] data = text.getBytes(StandardCharsets.UTF_8);
+        Dialect d = Languages.builtin().dialectOf(ext);
+        long[] whole = scan(data, d, 1 << 16);
+        assertArrayEquals(whole, scan(data, d, 1), "побайтовая подача");
+        return whole;
+    }
+
+    @Test
+    void block_comments_and_strings() {
+        String java = String.join("\n",
+                "/*",                          // комментарий
+                " * doc",                      // комментарий
+                "",                            // пусто
+                " */",                         // комментарий
+                "String s = \"/* not */\"; // x", // код
+                "String u = \"http://x\";",   // код
+                "int a = 1; /* tail",          // код
+                "   still comment */",         // комментарий
+                "/* a */ b();",                // код
+                "/* a */ /* b */",             // комментарий
+                "char c = '\\''; // q",       // код
+                "/");                          // код: незавершённый маркер в конце файла
+        assertArrayEquals(new long[]{12, 11, 5}, scan(java, "java"));
+    }
+
+    @Test
+    void longest_marker_wins() {
+        // в Lua "--" — строка, "--[[" — блок
+        assertArrayEquals(new long[]{4, 4, 4}, scan("--[[ a\nb\n]]\n-- c\n", "lua"));
+        // в Python тройная кавычка — многострочная строка, а "" — пустая строка
+        assertArrayEquals(new long[]{5, 5, 1}, scan("\"\"\"\n# inside\n\"\"\"\ns = \"\" # c\n# d", "py"));
+        assertArrayEquals(new long[]{3, 3, 2}, scan("<!-- a -->\n<a/>\n<!---->", "xml"));
+    }
+
+    @Test
+    void single_line_strings_end_at_newline() {
+        assertArrayEquals(new long[]{2, 2, 1}, scan("echo \"unterminated\n# comment\n", "sh"));
+        assertArrayEquals(new long[]{3, 3, 1}, scan("x = `a\n// b`\r\n// c", "js"));
+    }
+
+    @Test
+    void unknown_extension_has_no_comments() {
+        assertArrayEquals(new long[]{2, 2, 0}, scan("// a\n# b\n", "txt"));
+    }
+
+    @Test
+    void custom_language_definition() {
+        Languages l = Languages.parse("[x]\next X .y\nline REM\nblock (* *)\nstring \" \" escape \\\n");
+        Dialect d = l.dialectOf("x");
+        assertSame(d, l.dialectOf("y"));
+        byte[] data = "REM a\n(* b\n c *)\n\"(*\"\n".getBytes(StandardCharsets.UTF_8);
+        assertArrayEquals(new long[]{4, 4, 3}, scan(data, d, 2));
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> Languages.parse("[x]\nline a b\n"));
+        assertTrue(e.getMessage().contains(":2:"), e.getMessage());
+        assertThrows(IllegalArgumentException.class, () -> Languages.parse("line //\n"));
+        assertThrows(IllegalArgumentException.class, () -> Languages.parse("[x]\nblock /* \u00e9/\n"));
+    }
+
+    @Test
+    void sniffs_binary_content_and_stops_reading() {
+        LineScanner s = new LineScanner();
+        s.reset(SLASH);
+        byte[] text = "// a\nb\n".repeat(2000).getBytes(StandardCharsets.UTF_8);
+        assertTrue(s.accept(text, 0, text.length));
+        // NUL после первых SNIFF_SIZE байт — текст со случайным NUL, а не двоичный файл
+        assertTrue(s.accept(new byte[]{0, '\n'}, 0, 2));
+        s.finish();
+        assertFalse(s.binary());
+        assertEquals(4001, s.totalLines());
+
+        s.reset(SLASH);
+        assertTrue(s.accept("abc\n".getBytes(StandardCharsets.UTF_8), 0, 4));
+        assertFalse(s.accept(new byte[]{'x', 0}, 0, 2));
+        s.finish();
+        assertTrue(s.binary());
+        assertArrayEquals(new long[]{0, 0, 0}, new long[]{s.totalLines(), s.nonEmptyLines(), s.commentLines()});
+
+        s.reset(Dialect.PLAIN);
+        byte[] pdf = "%PDF-1.7\n".getBytes(StandardCharsets.UTF_8);
+        assertFalse(s.accept(pdf, 0, pdf.length));
+        // сигнатура проверяется только в начале файла
+        s.reset(Dialect.PLAIN);
+        assertTrue(s.accept("x\n".getBytes(StandardCharsets.UTF_8), 0, 2));
+        assertTrue(s.accept(pdf, 0, pdf.length));
+    }
+
+    @Test
+    void text_with_signature_prefix_is_not_binary() {
+        for (String text : new String[]{"GIF8 notes\n", "BZh, the bzip2 header\n", "BZh9 ok\n",
+                "RIFF parser notes\n", "ID3 tags\n", "OggS\n", "wOFF fonts\n"}) {
+            byte[] data = text.getBytes(StandardCharsets.UTF_8);
+            LineScanner s = new LineScanner();
+            s.reset(Dialect.PLAIN);
+            assertTrue(s.accept(data, 0, data.length), text);
+            s.finish();
+            assertFalse(s.binary(), text);
+            assertEquals(1, s.totalLines(), text);
+        }
+        byte[][] binary = {
+                "GIF89a\u0001\u0001".getBytes(StandardCharsets.ISO_8859_1),
+                "BZh91AY&SY".getBytes(StandardCharsets.ISO_8859_1),
+                "RIFF\u00ff\u00ff\u00ff\u00ffWAVEfmt ".getBytes(StandardCharsets.ISO_8859_1),
+                "ID3\u0004\u0000".getBytes(StandardCharsets.ISO_8859_1),
+        };
+        for (byte[] data : binary) {
+            LineScanner s = new LineScanner();
+            s.reset(Dialect.PLAIN);
+            assertFalse(s.accept(data, 0, data.length), new String(data, StandardCharsets.ISO_8859_1));
+        }
+    }
+}
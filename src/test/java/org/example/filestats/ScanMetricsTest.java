@@ -0,0 +1,27 @@
+package org.example.filestats;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ScanMetricsTest {
+
+    @Test
+    void latency_percentiles_are_bucket_upper_bounds() {
+        ScanMetrics.Latency a = new ScanMetrics.Latency();
+        ScanMetrics.Latency b = new ScanMetrics.Latency();
+        for (int i = 0; i < 90; i++) a.record(1000);
+        for (int i = 0; i < 9; i++) b.record(100_000);
+        b.record(5_000_000);
+
+        ScanMetrics.Latency total = new ScanMetrics.Latency();
+        a.mergeInto(total);
+        b.mergeInto(total);
+        assertEquals(100, total.count());
+        assertEquals(1024, total.percentile(0.5));
+        assertEquals(1024, total.percentile(0.9));
+        assertEquals(131072, total.percentile(0.99));
+        assertEquals(5_000_000, total.percentile(1.0));
+        assertEquals(0, new ScanMetrics.Latency().percentile(0.5));
+    }
+}
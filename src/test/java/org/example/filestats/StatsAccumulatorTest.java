@@ -0,0 +1,44 @@
+package org.example.filestats;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StatsAccumulatorTest {
+
+    @Test
+    void interns_extensions_case_insensitively() {
+        StatsAccumulator acc = new StatsAccumulator();
+        int java = acc.extIdOf("A.java");
+        assertEquals(java, acc.extIdOf("B.JAVA"));
+        assertEquals(java, acc.intern("java"));
+        assertEquals("java", acc.extName(java));
+        assertEquals("(noext)", acc.extName(acc.extIdOf("Makefile")));
+        assertEquals(acc.extIdOf(".bashrc"), acc.extIdOf("trailing."));
+        assertEquals("ÿ", acc.extName(acc.extIdOf("x.Ÿ")));
+        assertNotEquals(java, acc.extIdOf("a.jav"));
+    }
+
+    @Test
+    void grows_and_merges_into_stats() {
+        StatsAccumulator a = new StatsAccumulator();
+        StatsAccumulator b = new StatsAccumulator();
+        for (int i = 0; i < 200; i++) {
+            a.add(a.extIdOf("f.e" + i), 10, 2, 1, 0);
+            b.add(b.extIdOf("g.E" + (199 - i)), 5, 1, 1, 1);
+        }
+        Map<String, FileStatsCli.Stats> out = new HashMap<>();
+        a.mergeInto(out);
+        b.mergeInto(out);
+        assertEquals(200, out.size());
+        FileStatsCli.Stats s = out.get("e7");
+        assertEquals(2, s.files.sum());
+        assertEquals(15, s.bytes.sum());
+        assertEquals(3, s.totalLines.sum());
+        assertEquals(2, s.nonEmptyLines.sum());
+        assertEquals(1, s.commentLines.sum());
+    }
+}